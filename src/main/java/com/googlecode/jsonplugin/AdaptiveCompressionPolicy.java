@@ -0,0 +1,229 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.googlecode.jsonplugin;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p>Compression policy trading bandwidth for CPU according to the load of the process. When the
+ * CPU is idle, the responses are compressed as much as possible. As the load rises, the level
+ * drops down to the fastest one, and responses of actions whose output barely compresses are
+ * sent uncompressed.</p>
+ * <p/>
+ * <table>
+ * <tr><th>CPU load</th><th>level</th></tr>
+ * <tr><td>below 30%</td><td>9, 6 for bodies of 1 MB or more or of unknown size</td></tr>
+ * <tr><td>30% to 60%</td><td>6</td></tr>
+ * <tr><td>60% to 85%</td><td>3</td></tr>
+ * <tr><td>85% and more</td><td>1, none when the action compresses to more than 60%</td></tr>
+ * </table>
+ * <p/>
+ * <p>Actions whose responses compress to more than 90% of their size are not compressed. The
+ * ratio of each action is a moving average of its recent responses, starting from 30%. One in
+ * 16 of the responses left uncompressed because of their ratio is still compressed, with the
+ * fastest level, so the ratio follows the responses when they change. At most 1024 actions get a
+ * ratio, the other ones are compressed like actions without one.</p>
+ * <p/>
+ * <p>The load is the CPU load of the process, read from the OperatingSystemMXBean at most once a
+ * second. Without com.sun.management.OperatingSystemMXBean, the system load average divided by
+ * the number of processors is used. When neither is available the default level is used.</p>
+ * <p/>
+ * <p>The levels chosen, the load and the ratios are exposed through getters for monitoring.</p>
+ */
+public class AdaptiveCompressionPolicy implements CompressionPolicy {
+    private static final Log log = LogFactory.getLog(AdaptiveCompressionPolicy.class);
+
+    private static final long SAMPLE_INTERVAL = 1000;
+
+    /**
+     * Ratios are kept in thousandths
+     */
+    private static final int UNKNOWN_RATIO = 300;
+    private static final int INCOMPRESSIBLE_RATIO = 900;
+    private static final int POOR_RATIO = 600;
+
+    /**
+     * Weight of the last response in the moving average of the ratio, in eighths
+     */
+    private static final int RATIO_WEIGHT = 2;
+
+    private static final int LARGE_BODY = 1024 * 1024;
+
+    /**
+     * One in PROBE_INTERVAL of the responses that aren't compressed because of their ratio is
+     * compressed to measure the ratio again
+     */
+    private static final int PROBE_INTERVAL = 16;
+
+    private static final int MAX_RATIOS = 1024;
+
+    private static final Method processCpuLoad;
+    private static final Method systemLoadAverage;
+
+    static {
+        processCpuLoad = findMethod("com.sun.management.OperatingSystemMXBean", "getProcessCpuLoad");
+        systemLoadAverage = findMethod("java.lang.management.OperatingSystemMXBean", "getSystemLoadAverage");
+    }
+
+    /**
+     * Count of the responses per level, the uncompressed ones first, then the default level
+     */
+    private final AtomicLong[] levels = new AtomicLong[12];
+    private final ConcurrentMap<String, Ratio> ratios = new ConcurrentHashMap<String, Ratio>();
+    private volatile double cpuLoad = -1;
+    private volatile long sampled;
+
+    public AdaptiveCompressionPolicy() {
+        for (int i = 0; i < this.levels.length; i++)
+            this.levels[i] = new AtomicLong();
+    }
+
+    private static Method findMethod(String className, String name) {
+        try {
+            return Class.forName(className).getMethod(name);
+        } catch (Exception e) {
+            log.debug(className + "." + name + "() is not available");
+            return null;
+        }
+    }
+
+    public int getLevel(String key, int size) {
+        double load = getCpuLoad();
+        Ratio ratio = this.ratios.get(key);
+        int value = (ratio != null) ? ratio.average.get() : UNKNOWN_RATIO;
+
+        int level;
+        if (value >= INCOMPRESSIBLE_RATIO)
+            level = NO_COMPRESSION;
+        else if (load < 0)
+            level = 6;
+        else if (load < 0.3)
+            //streamed responses may be large
+            level = ((size >= 0) && (size < LARGE_BODY)) ? 9 : 6;
+        else if (load < 0.6)
+            level = 6;
+        else if (load < 0.85)
+            level = 3;
+        else
+            level = (value > POOR_RATIO) ? NO_COMPRESSION : 1;
+
+        //only a known ratio leaves a response uncompressed
+        if ((level == NO_COMPRESSION) && (ratio.skipped.incrementAndGet() % PROBE_INTERVAL == 0))
+            level = 1;
+        if (level == NO_COMPRESSION)
+            this.levels[0].incrementAndGet();
+        return level;
+    }
+
+    public void compressed(String key, int level, long size, long compressedSize) {
+        if ((level >= -1) && (level <= 9))
+            this.levels[level + 2].incrementAndGet();
+        if (size <= 0)
+            return;
+
+        Ratio ratio = this.ratios.get(key);
+        if (ratio == null) {
+            if (this.ratios.size() >= MAX_RATIOS)
+                return;
+            ratio = new Ratio();
+            Ratio existing = this.ratios.putIfAbsent(key, ratio);
+            if (existing != null)
+                ratio = existing;
+        }
+
+        int sample = (int) Math.min(1000, compressedSize * 1000 / size);
+        int current;
+        do {
+            current = ratio.average.get();
+        } while (!ratio.average.compareAndSet(current, (current * (8 - RATIO_WEIGHT) + sample * RATIO_WEIGHT) / 8));
+    }
+
+    /**
+     * @return CPU load of the process from 0 to 1, sampled at most once a second, or a negative
+     *         value if unknown
+     */
+    public double getCpuLoad() {
+        long now = System.currentTimeMillis();
+        if (now - this.sampled >= SAMPLE_INTERVAL) {
+            this.sampled = now;
+            this.cpuLoad = readCpuLoad();
+        }
+        return this.cpuLoad;
+    }
+
+    /**
+     * @return current CPU load from 0 to 1, or a negative value if unknown
+     */
+    protected double readCpuLoad() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        try {
+            if ((processCpuLoad != null) && processCpuLoad.getDeclaringClass().isInstance(os)) {
+                double load = (Double) processCpuLoad.invoke(os);
+                if (load >= 0)
+                    return load;
+            }
+            if (systemLoadAverage != null) {
+                double load = (Double) systemLoadAverage.invoke(os);
+                if (load >= 0)
+                    return Math.min(1, load / os.getAvailableProcessors());
+            }
+        } catch (Exception e) {
+            log.debug("The CPU load can't be read", e);
+        }
+        return -1;
+    }
+
+    /**
+     * @param level deflate level from 0 to 9, -1 for the default level, or {@link #NO_COMPRESSION}
+     * @return number of responses compressed with the level, or left uncompressed because of the
+     *         load or of their ratio
+     */
+    public long getLevelCount(int level) {
+        return this.levels[level + 2].get();
+    }
+
+    /**
+     * @param key package and configured name of an action
+     * @return moving average of the compressed size divided by the size of the responses of the
+     *         action, or a negative value if none was compressed
+     */
+    public double getCompressionRatio(String key) {
+        Ratio ratio = this.ratios.get(key);
+        return (ratio != null) ? ratio.average.get() / 1000.0 : -1;
+    }
+
+    /**
+     * Moving average of the ratio of an action, in thousandths
+     */
+    private static final class Ratio {
+        final AtomicInteger average = new AtomicInteger(UNKNOWN_RATIO);
+        final AtomicInteger skipped = new AtomicInteger();
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.googlecode.jsonplugin;
+
+/**
+ * <p>Chooses how each response of a {@link JSONResult} is compressed, in place of the fixed
+ * gzipLevel. Policies are declared in struts.xml and selected by name with the
+ * compressionPolicy parameter of the result:</p>
+ * <p/>
+ * <pre>
+ * &lt;bean type="com.googlecode.jsonplugin.CompressionPolicy" name="custom"
+ *       class="com.example.CustomCompressionPolicy"/&gt;
+ * </pre>
+ * <p/>
+ * <p>The plugin declares {@link AdaptiveCompressionPolicy} as "adaptive". The policy is only
+ * asked when the client accepts GZIP and the response reaches gzipMinSize. Implementations are
+ * shared between threads and must be thread safe.</p>
+ */
+public interface CompressionPolicy {
+
+    /**
+     * Level meaning the response is sent uncompressed
+     */
+    int NO_COMPRESSION = -2;
+
+    /**
+     * @param key  identifies the kind of response, the package and the configured name of the action
+     * @param size size of the uncompressed body in bytes, -1 if unknown when it is streamed
+     * @return deflate level from 0 to 9, -1 for the default level, or {@link #NO_COMPRESSION}
+     */
+    int getLevel(String key, int size);
+
+    /**
+     * Reports a response compressed with the level returned by {@link #getLevel(String, int)}
+     *
+     * @param key            the key given to getLevel
+     * @param level          the level used
+     * @param size           size of the uncompressed body in bytes
+     * @param compressedSize size of the compressed body in bytes
+     */
+    void compressed(String key, int level, long size, long compressedSize);
+}
@@ -0,0 +1,318 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.googlecode.jsonplugin;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.googlecode.jsonplugin.annotations.JSONFieldAccess;
+
+/**
+ * <p>Per class cache of the properties serialized by {@link JSONWriter}. Introspection, annotation
+ * lookup and CGLIB accessor resolution happen once per class, later lookups don't lock.</p>
+ * <p/>
+ * <p>The properties are read from the getters, or from the fields for classes annotated with
+ * {@link JSONFieldAccess} and when field access is requested. Field access doesn't use the
+ * Introspector at all.</p>
+ * <p/>
+ * <p>For each state of a compiled include/exclude filter, a {@link Plan} lists the properties
+ * left after filtering along with the filter state of each one, so serializing a bean doesn't
+ * evaluate the filter or the annotations again.</p>
+ */
+@SuppressWarnings("unchecked")
+final class JSONBeanInfo {
+    private static final Log log = LogFactory.getLog(JSONBeanInfo.class);
+
+    private static final ConcurrentMap<Class, JSONBeanInfo> cache = new ConcurrentHashMap<Class, JSONBeanInfo>();
+
+    /**
+     * Properties declared on the class itself, used for the root object when ignoreHierarchy is set
+     */
+    private static final ConcurrentMap<Class, JSONBeanInfo> declaredCache = new ConcurrentHashMap<Class, JSONBeanInfo>();
+
+    private static final ConcurrentMap<Class, JSONBeanInfo> fieldCache = new ConcurrentHashMap<Class, JSONBeanInfo>();
+
+    private static final ConcurrentMap<Class, JSONBeanInfo> declaredFieldCache = new ConcurrentHashMap<Class, JSONBeanInfo>();
+
+    /**
+     * Maximum number of plans kept per filter, other plans are computed on each use
+     */
+    static final int MAX_PLANS = 4096;
+
+    private final JSONProperty[] properties;
+    private final Plan unfiltered;
+
+    private JSONBeanInfo(JSONProperty[] properties) {
+        this.properties = properties;
+
+        List<JSONProperty> serialized = new ArrayList<JSONProperty>(properties.length);
+        for (JSONProperty property : properties) {
+            if (property.isSerialize())
+                serialized.add(property);
+        }
+        this.unfiltered = new Plan(serialized.toArray(new JSONProperty[serialized.size()]), null);
+    }
+
+    /**
+     * @param clazz         class to introspect
+     * @param declaredOnly  ignore the properties defined on the base classes of clazz
+     * @return cached metadata of clazz
+     */
+    public static JSONBeanInfo getBeanInfo(Class clazz, boolean declaredOnly) throws IntrospectionException {
+        return getBeanInfo(clazz, declaredOnly, false);
+    }
+
+    /**
+     * @param clazz         class to introspect
+     * @param declaredOnly  ignore the properties defined on the base classes of clazz
+     * @param fieldAccess   read the fields instead of the getters, classes annotated with
+     *                      {@link JSONFieldAccess} always use their fields
+     * @return cached metadata of clazz
+     */
+    public static JSONBeanInfo getBeanInfo(Class clazz, boolean declaredOnly, boolean fieldAccess)
+            throws IntrospectionException {
+        ConcurrentMap<Class, JSONBeanInfo> map;
+        if (fieldAccess)
+            map = declaredOnly ? declaredFieldCache : fieldCache;
+        else
+            map = declaredOnly ? declaredCache : cache;
+        JSONBeanInfo info = map.get(clazz);
+        if (info == null) {
+            if ((fieldAccess || clazz.isAnnotationPresent(JSONFieldAccess.class)) && !isEnhanced(clazz))
+                info = introspectFields(clazz, declaredOnly);
+            else
+                info = introspect(clazz, declaredOnly);
+            JSONBeanInfo existing = map.putIfAbsent(clazz, info);
+            if (existing != null)
+                info = existing;
+        }
+        return info;
+    }
+
+    /**
+     * @return properties in introspection order, including the ones marked with @JSON(serialize=false)
+     */
+    public JSONProperty[] getProperties() {
+        return properties;
+    }
+
+    /**
+     * @param filter compiled include/exclude filter, or null
+     * @param state  state of the filter at the bean
+     * @return the properties to serialize, without the ones marked with @JSON(serialize=false)
+     *         or excluded by the filter. The filtered plans are kept by the filter, so they are
+     *         freed along with it.
+     */
+    public Plan getPlan(JSONPathFilter filter, int state) {
+        if (filter == null)
+            return this.unfiltered;
+
+        ConcurrentMap<PlanKey, Plan> plans = filter.getPlans();
+        PlanKey key = new PlanKey(this, state);
+        Plan plan = plans.get(key);
+        if (plan == null) {
+            plan = this.unfiltered.filter(filter, state);
+            if (plans.size() < MAX_PLANS)
+                plans.put(key, plan);
+        }
+        return plan;
+    }
+
+    private static JSONBeanInfo introspect(Class clazz, boolean declaredOnly) throws IntrospectionException {
+        BeanInfo info = declaredOnly ? Introspector.getBeanInfo(clazz, clazz.getSuperclass()) : Introspector
+                .getBeanInfo(clazz);
+
+        PropertyDescriptor[] props = info.getPropertyDescriptors();
+        List<JSONProperty> properties = new ArrayList<JSONProperty>(props.length);
+
+        for (int i = 0; i < props.length; ++i) {
+            PropertyDescriptor prop = props[i];
+            Method accessor = prop.getReadMethod();
+
+            //ignore "class" and others
+            if ((accessor == null) || shouldExcludeProperty(prop)) {
+                continue;
+            }
+
+            Method baseAccessor = null;
+            if (isEnhanced(clazz)) {
+                try {
+                    baseAccessor = Class.forName(
+                            clazz.getName().substring(0, clazz.getName().indexOf("$$")))
+                            .getMethod(accessor.getName(), accessor.getParameterTypes());
+                } catch (Exception ex) {
+                    log.debug(ex.getMessage(), ex);
+                }
+            } else
+                baseAccessor = accessor;
+
+            if (baseAccessor != null)
+                properties.add(new JSONProperty(prop.getName(), accessor, baseAccessor));
+        }
+
+        return new JSONBeanInfo(properties.toArray(new JSONProperty[properties.size()]));
+    }
+
+    /**
+     * Reads the non static, non transient fields, the ones of the base classes first. A field
+     * hides the fields of the same name declared by the base classes.
+     */
+    private static JSONBeanInfo introspectFields(Class clazz, boolean declaredOnly) {
+        List<Class> hierarchy = new ArrayList<Class>();
+        for (Class c = clazz; (c != null) && (c != Object.class) && (c != Enum.class); c = c.getSuperclass()) {
+            hierarchy.add(0, c);
+            if (declaredOnly)
+                break;
+        }
+
+        List<JSONProperty> properties = new ArrayList<JSONProperty>();
+        Set<String> names = new HashSet<String>();
+        for (Class c : hierarchy) {
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic())
+                    continue;
+
+                try {
+                    field.setAccessible(true);
+                } catch (RuntimeException e) {
+                    log.debug("Access checks can't be suppressed on " + field, e);
+                    if (!Modifier.isPublic(modifiers) || !Modifier.isPublic(c.getModifiers()))
+                        continue;
+                }
+
+                //the field of the subclass wins
+                if (!names.add(field.getName())) {
+                    for (int i = 0; i < properties.size(); i++) {
+                        if (properties.get(i).getField().getName().equals(field.getName()))
+                            properties.remove(i--);
+                    }
+                }
+                properties.add(new JSONProperty(field));
+            }
+        }
+
+        return new JSONBeanInfo(properties.toArray(new JSONProperty[properties.size()]));
+    }
+
+    /**
+     * Properties of a bean to serialize, resolved for a state of a filter
+     */
+    static final class Plan {
+        private final JSONProperty[] properties;
+        private final int[] states;
+
+        Plan(JSONProperty[] properties, int[] states) {
+            this.properties = properties;
+            this.states = states;
+        }
+
+        /**
+         * @return the properties to serialize, in order
+         */
+        public JSONProperty[] getProperties() {
+            return properties;
+        }
+
+        /**
+         * @return filter state of each property, null without a filter
+         */
+        public int[] getStates() {
+            return states;
+        }
+
+        Plan filter(JSONPathFilter filter, int state) {
+            List<JSONProperty> properties = new ArrayList<JSONProperty>(this.properties.length);
+            int[] states = new int[this.properties.length];
+            if (!filter.isExcludingChildren(state)) {
+                for (JSONProperty property : this.properties) {
+                    int child = filter.property(state, property.getName());
+                    if (filter.isExcluded(child)) {
+                        if (log.isDebugEnabled())
+                            log.debug("Ignoring property because of include/exclude rules: " + property.getName());
+                        continue;
+                    }
+                    states[properties.size()] = child;
+                    properties.add(property);
+                }
+            }
+
+            int[] trimmed = new int[properties.size()];
+            System.arraycopy(states, 0, trimmed, 0, trimmed.length);
+            return new Plan(properties.toArray(new JSONProperty[properties.size()]), trimmed);
+        }
+    }
+
+    /**
+     * Plan of a bean for a state of the filter holding it. The metadata of a class is cached
+     * once, so it is compared by identity.
+     */
+    static final class PlanKey {
+        private final JSONBeanInfo info;
+        private final int state;
+
+        PlanKey(JSONBeanInfo info, int state) {
+            this.info = info;
+            this.state = state;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(info) + state;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PlanKey))
+                return false;
+            PlanKey key = (PlanKey) obj;
+            return (this.info == key.info) && (this.state == key.state);
+        }
+    }
+
+    private static boolean isEnhanced(Class clazz) {
+        return clazz.getName().indexOf("$$EnhancerByCGLIB$$") > -1;
+    }
+
+    /**
+     * Ignore "class" field
+     */
+    private static boolean shouldExcludeProperty(PropertyDescriptor prop) {
+        String name = prop.getName();
+
+        return name.equals("class") || name.equals("declaringClass")
+                || name.equals("cachedSuperClass") || name.equals("metaClass");
+    }
+}
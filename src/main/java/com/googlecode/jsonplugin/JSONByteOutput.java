@@ -0,0 +1,302 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.googlecode.jsonplugin;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * <p>Encodes JSON text as UTF-8 or ISO-8859-1 straight into a byte array, without going through
+ * an intermediate String or a CharsetEncoder. Characters that can't be represented in the
+ * encoding are replaced with '?', like String.getBytes() does.</p>
+ * <p>The output either streams to an OutputStream each time the array fills up, or, without a
+ * target, grows the array to hold the complete document, see {@link #size()} and
+ * {@link #writeTo(OutputStream)}.</p>
+ */
+final class JSONByteOutput extends JSONOutput {
+    static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private static final String UTF_8 = "UTF-8";
+    private static final String ISO_8859_1 = "ISO-8859-1";
+
+    private final OutputStream target;
+    private final boolean utf8;
+    private byte[] buf;
+    private int pos;
+    private long flushed;
+    private char highSurrogate;
+
+    /**
+     * Streams the encoded output to target through a fixed size buffer
+     */
+    JSONByteOutput(OutputStream target, String encoding, int bufferSize) {
+        this.target = target;
+        this.utf8 = isUTF8(encoding);
+        this.buf = new byte[bufferSize];
+    }
+
+    /**
+     * Keeps the encoded output in memory, starting with the given array
+     */
+    JSONByteOutput(String encoding, byte[] buf) {
+        this.target = null;
+        this.utf8 = isUTF8(encoding);
+        this.buf = buf;
+    }
+
+    /**
+     * @return true if the encoding is one that can be written by this class
+     */
+    static boolean isSupported(String encoding) {
+        try {
+            String name = Charset.forName(encoding).name();
+            return UTF_8.equals(name) || ISO_8859_1.equals(name);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static boolean isUTF8(String encoding) {
+        String name = Charset.forName(encoding).name();
+        if (!UTF_8.equals(name) && !ISO_8859_1.equals(name))
+            throw new IllegalArgumentException("Unsupported encoding: " + encoding);
+        return UTF_8.equals(name);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        if (this.buf.length - this.pos < 4)
+            this.makeRoom(4);
+        if ((c < 0x80) && (this.highSurrogate == 0))
+            this.buf[this.pos++] = (byte) c;
+        else
+            this.encode((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        int end = off + len;
+        while (off < end) {
+            if (this.buf.length - this.pos < 4)
+                this.makeRoom(Math.max(4, (end - off) * 3));
+
+            //characters guaranteed to fit in the array, a high surrogate left pending by the
+            //previous chunk may add a '?' in front of the first one
+            int chunkEnd = Math.min(end, off + Math.max(1, (this.buf.length - this.pos - 1) / 3));
+            byte[] bytes = this.buf;
+            int p = this.pos;
+            for (; off < chunkEnd; off++) {
+                char c = cbuf[off];
+                if ((c < 0x80) && (this.highSurrogate == 0)) {
+                    bytes[p++] = (byte) c;
+                } else {
+                    this.pos = p;
+                    this.encode(c);
+                    p = this.pos;
+                }
+            }
+            this.pos = p;
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        int end = off + len;
+        while (off < end) {
+            if (this.buf.length - this.pos < 4)
+                this.makeRoom(Math.max(4, (end - off) * 3));
+
+            //characters guaranteed to fit in the array, a high surrogate left pending by the
+            //previous chunk may add a '?' in front of the first one
+            int chunkEnd = Math.min(end, off + Math.max(1, (this.buf.length - this.pos - 1) / 3));
+            byte[] bytes = this.buf;
+            int p = this.pos;
+            for (; off < chunkEnd; off++) {
+                char c = str.charAt(off);
+                if ((c < 0x80) && (this.highSurrogate == 0)) {
+                    bytes[p++] = (byte) c;
+                } else {
+                    this.pos = p;
+                    this.encode(c);
+                    p = this.pos;
+                }
+            }
+            this.pos = p;
+        }
+    }
+
+    @Override
+    public void writeToken(char[] chars, byte[] utf8, int skip) throws IOException {
+        //the UTF-8 bytes of an ASCII token are its ISO-8859-1 bytes too
+        int length = utf8.length - skip;
+        if ((this.highSurrogate == 0) && (this.utf8 || (utf8.length == chars.length))) {
+            if (this.buf.length - this.pos < length)
+                this.makeRoom(length);
+            if (this.buf.length - this.pos >= length) {
+                System.arraycopy(utf8, skip, this.buf, this.pos, length);
+                this.pos += length;
+                return;
+            }
+            if (this.target != null) {
+                //the buffer was drained, too big to be buffered
+                this.target.write(utf8, skip, length);
+                this.flushed += length;
+                return;
+            }
+        }
+        super.writeToken(chars, utf8, skip);
+    }
+
+    /**
+     * Encodes a character, at least 4 bytes must be available in the array
+     */
+    private void encode(char c) {
+        if (this.highSurrogate != 0) {
+            char high = this.highSurrogate;
+            this.highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                if (this.utf8) {
+                    int codePoint = Character.toCodePoint(high, c);
+                    this.buf[this.pos++] = (byte) (0xF0 | (codePoint >> 18));
+                    this.buf[this.pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    this.buf[this.pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    this.buf[this.pos++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    this.buf[this.pos++] = '?';
+                }
+                return;
+            }
+            //unpaired high surrogate
+            this.buf[this.pos++] = '?';
+        }
+
+        if (c < 0x80) {
+            this.buf[this.pos++] = (byte) c;
+        } else if (Character.isHighSurrogate(c)) {
+            this.highSurrogate = c;
+        } else if (!this.utf8) {
+            this.buf[this.pos++] = (c < 0x100) ? (byte) c : (byte) '?';
+        } else if (c < 0x800) {
+            this.buf[this.pos++] = (byte) (0xC0 | (c >> 6));
+            this.buf[this.pos++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isLowSurrogate(c)) {
+            this.buf[this.pos++] = '?';
+        } else {
+            this.buf[this.pos++] = (byte) (0xE0 | (c >> 12));
+            this.buf[this.pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            this.buf[this.pos++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    /**
+     * Makes room for at least 4 more bytes, by passing the buffer on to the target or
+     * by growing it when there is no target
+     *
+     * @param hint number of bytes that are about to be written
+     */
+    private void makeRoom(int hint) throws IOException {
+        if (this.target != null) {
+            this.drain();
+        } else {
+            int size = Math.max(Math.max(this.buf.length * 2, 64), this.pos + Math.min(hint, this.buf.length + 4));
+            byte[] bytes = new byte[size];
+            System.arraycopy(this.buf, 0, bytes, 0, this.pos);
+            this.buf = bytes;
+        }
+    }
+
+    private void drain() throws IOException {
+        if (this.pos > 0) {
+            this.target.write(this.buf, 0, this.pos);
+            this.flushed += this.pos;
+            this.pos = 0;
+        }
+    }
+
+    /**
+     * Writes out a trailing unpaired surrogate
+     */
+    private void endText() throws IOException {
+        if (this.highSurrogate != 0) {
+            this.highSurrogate = 0;
+            if (this.buf.length == this.pos)
+                this.makeRoom(4);
+            this.buf[this.pos++] = '?';
+        }
+    }
+
+    /**
+     * @return number of bytes written so far
+     */
+    public int size() throws IOException {
+        this.endText();
+        return (int) (this.flushed + this.pos);
+    }
+
+    @Override
+    public long getCount() {
+        return this.flushed + this.pos;
+    }
+
+    /**
+     * @return the array holding the output, may have been replaced by a bigger one while writing
+     */
+    public byte[] getBuffer() {
+        return this.buf;
+    }
+
+    /**
+     * Writes the buffered output to out
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        this.endText();
+        out.write(this.buf, 0, this.pos);
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if (this.target != null)
+            this.drain();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (this.target != null) {
+            this.endText();
+            this.drain();
+            this.target.flush();
+        }
+    }
+
+    /**
+     * Writes the buffered output and closes the target stream, like an OutputStreamWriter, so
+     * closing the writer of a streamed response ends its GZIP stream
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.target != null) {
+            this.endText();
+            this.drain();
+            this.target.close();
+        }
+    }
+}
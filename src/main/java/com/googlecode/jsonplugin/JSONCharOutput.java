@@ -0,0 +1,147 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.googlecode.jsonplugin;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+
+/**
+ * <p>Buffers JSON text in a fixed size char array and passes it on to an {@link Appendable}, usually a
+ * {@link Writer} or a {@link StringBuilder}, each time the array fills up.</p>
+ */
+final class JSONCharOutput extends JSONOutput {
+    static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private Appendable target;
+    private final char[] buf;
+    private int pos;
+    private long flushed;
+
+    JSONCharOutput(Appendable target) {
+        this(target, DEFAULT_BUFFER_SIZE);
+    }
+
+    JSONCharOutput(Appendable target, int bufferSize) {
+        this.target = target;
+        this.buf = new char[bufferSize];
+    }
+
+    /**
+     * Points the output to another destination, discarding the text not flushed yet, so the
+     * buffer can be reused by the next serialization
+     *
+     * @param target new destination, or null to release the current one
+     */
+    void reset(Appendable target) {
+        this.target = target;
+        this.pos = 0;
+        this.flushed = 0;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        if (this.pos == this.buf.length)
+            this.flushBuffer();
+        this.buf[this.pos++] = (char) c;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        if (len > this.buf.length - this.pos) {
+            this.flushBuffer();
+            if (len >= this.buf.length) {
+                //too big to be buffered
+                this.flushed += len;
+                if (this.target instanceof Writer)
+                    ((Writer) this.target).write(cbuf, off, len);
+                else if (this.target instanceof StringBuilder)
+                    ((StringBuilder) this.target).append(cbuf, off, len);
+                else
+                    this.target.append(CharBuffer.wrap(cbuf, off, len));
+                return;
+            }
+        }
+        System.arraycopy(cbuf, off, this.buf, this.pos, len);
+        this.pos += len;
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        if (len > this.buf.length - this.pos) {
+            this.flushBuffer();
+            if (len >= this.buf.length) {
+                //too big to be buffered
+                this.flushed += len;
+                if (this.target instanceof Writer)
+                    ((Writer) this.target).write(str, off, len);
+                else
+                    this.target.append(str, off, off + len);
+                return;
+            }
+        }
+        str.getChars(off, off + len, this.buf, this.pos);
+        this.pos += len;
+    }
+
+    @Override
+    public Writer append(CharSequence csq, int start, int end) throws IOException {
+        if (csq instanceof String) {
+            this.write((String) csq, start, end - start);
+        } else if (csq == null) {
+            this.write("null", start, end - start);
+        } else {
+            for (int i = start; i < end; i++) {
+                if (this.pos == this.buf.length)
+                    this.flushBuffer();
+                this.buf[this.pos++] = csq.charAt(i);
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if (this.pos > 0) {
+            if (this.target instanceof Writer)
+                ((Writer) this.target).write(this.buf, 0, this.pos);
+            else if (this.target instanceof StringBuilder)
+                ((StringBuilder) this.target).append(this.buf, 0, this.pos);
+            else
+                this.target.append(CharBuffer.wrap(this.buf, 0, this.pos));
+            this.flushed += this.pos;
+            this.pos = 0;
+        }
+    }
+
+    @Override
+    public long getCount() {
+        return this.flushed + this.pos;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.flushBuffer();
+        if (this.target instanceof Flushable)
+            ((Flushable) this.target).flush();
+    }
+}
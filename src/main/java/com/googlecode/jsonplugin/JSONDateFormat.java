@@ -0,0 +1,266 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.googlecode.jsonplugin;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.text.DateFormat;
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p>Shared date format for a pattern, used to write and read java.util.Date, Calendar and
+ * java.time values.</p>
+ * <p>SimpleDateFormat is expensive to create and not thread safe, each thread gets its own copy
+ * per pattern. The default RFC3339 pattern is formatted without any SimpleDateFormat when the
+ * default locale uses the Gregorian calendar with ASCII digits. The java.time types are handled
+ * through reflection on JVMs that have them, with an immutable DateTimeFormatter per pattern.</p>
+ * <p>Instances are immutable and shared between threads.</p>
+ */
+@SuppressWarnings("unchecked")
+final class JSONDateFormat {
+    private static final Log log = LogFactory.getLog(JSONDateFormat.class);
+
+    private static final ConcurrentMap<String, JSONDateFormat> cache = new ConcurrentHashMap<String, JSONDateFormat>();
+
+    /**
+     * Room needed in the array by {@link #formatRFC3339(long, TimeZone, char[])}
+     */
+    static final int MAX_CHARS = 19;
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    private static final Class TEMPORAL = loadClass("java.time.temporal.TemporalAccessor");
+    private static final Class DATE_TIME_FORMATTER = loadClass("java.time.format.DateTimeFormatter");
+    private static final Method OF_PATTERN = getMethod(DATE_TIME_FORMATTER, "ofPattern", String.class);
+    private static final Method FORMAT = getMethod(DATE_TIME_FORMATTER, "format", TEMPORAL);
+
+    private final String pattern;
+    private final boolean rfc3339;
+    private final ThreadLocal<DateFormat> formats = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            return new SimpleDateFormat(pattern);
+        }
+    };
+    private volatile Object temporalFormatter;
+
+    private JSONDateFormat(String pattern) {
+        this.pattern = pattern;
+        this.rfc3339 = JSONUtil.RFC3339_FORMAT.equals(pattern) && isIsoCalendar((SimpleDateFormat) this.formats.get());
+    }
+
+    /**
+     * @param pattern SimpleDateFormat/DateTimeFormatter pattern
+     * @return the shared format for the pattern
+     */
+    public static JSONDateFormat getInstance(String pattern) {
+        JSONDateFormat format = cache.get(pattern);
+        if (format == null) {
+            format = new JSONDateFormat(pattern);
+            JSONDateFormat existing = cache.putIfAbsent(pattern, format);
+            if (existing != null)
+                format = existing;
+        }
+        return format;
+    }
+
+    /**
+     * @return the shared format of the default pattern, RFC3339 without time zone
+     */
+    public static JSONDateFormat getDefault() {
+        return getInstance(JSONUtil.RFC3339_FORMAT);
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * @param zone time zone of the output
+     */
+    public String format(Date date, TimeZone zone) {
+        DateFormat format = this.formats.get();
+        format.setTimeZone(zone);
+        return format.format(date);
+    }
+
+    /**
+     * Parses a date in the default time zone
+     */
+    public Date parse(String text) throws ParseException {
+        DateFormat format = this.formats.get();
+        format.setTimeZone(TimeZone.getDefault());
+        return format.parse(text);
+    }
+
+    /**
+     * Formats the default pattern, yyyy-MM-dd'T'HH:mm:ss, without allocating
+     *
+     * @param millis time to format
+     * @param zone   time zone of the output, the default one for SimpleDateFormat
+     * @param buf    destination of at least MAX_CHARS characters
+     * @return number of characters written, or -1 if the fast path doesn't apply and
+     *         {@link #format(Date, TimeZone)} must be used
+     */
+    public int formatRFC3339(long millis, TimeZone zone, char[] buf) {
+        if (!this.rfc3339)
+            return -1;
+
+        long local = millis + zone.getOffset(millis);
+        long days = local / MILLIS_PER_DAY;
+        long time = local % MILLIS_PER_DAY;
+        if (time < 0) {
+            days--;
+            time += MILLIS_PER_DAY;
+        }
+
+        //proleptic Gregorian date from the days since 1970-01-01
+        long z = days + 719468;
+        long era = ((z >= 0) ? z : z - 146096) / 146097;
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) ((mp < 10) ? mp + 3 : mp - 9);
+        long year = yearOfEra + era * 400 + ((month <= 2) ? 1 : 0);
+
+        //GregorianCalendar switches to the Julian calendar before 1582
+        if ((year < 1583) || (year > 9999))
+            return -1;
+
+        int seconds = (int) (time / 1000);
+        digits((int) year, 4, buf, 0);
+        buf[4] = '-';
+        digits(month, 2, buf, 5);
+        buf[7] = '-';
+        digits(day, 2, buf, 8);
+        buf[10] = 'T';
+        digits(seconds / 3600, 2, buf, 11);
+        buf[13] = ':';
+        digits((seconds / 60) % 60, 2, buf, 14);
+        buf[16] = ':';
+        digits(seconds % 60, 2, buf, 17);
+        return MAX_CHARS;
+    }
+
+    /**
+     * @return true if the object is a java.time value
+     */
+    public static boolean isTemporal(Object object) {
+        return (TEMPORAL != null) && TEMPORAL.isInstance(object);
+    }
+
+    /**
+     * @return true if the class is a java.time type
+     */
+    public static boolean isTemporal(Class clazz) {
+        return (TEMPORAL != null) && TEMPORAL.isAssignableFrom(clazz);
+    }
+
+    /**
+     * @param temporal java.time value
+     * @return the value formatted with the pattern
+     */
+    public String formatTemporal(Object temporal) throws JSONException {
+        try {
+            return (String) FORMAT.invoke(this.getTemporalFormatter(), temporal);
+        } catch (Exception e) {
+            throw new JSONException(unwrap(e));
+        }
+    }
+
+    /**
+     * Parses a java.time value with the static parse methods of its type
+     *
+     * @param clazz   java.time type, like java.time.LocalDate
+     * @param text    text to parse
+     * @param pattern pattern to use, or null for the ISO-8601 format of the type
+     * @return the parsed value
+     */
+    public static Object parseTemporal(Class clazz, String text, String pattern) throws JSONException {
+        try {
+            if (pattern == null)
+                return clazz.getMethod("parse", CharSequence.class).invoke(null, text);
+            Method parse = clazz.getMethod("parse", CharSequence.class, DATE_TIME_FORMATTER);
+            return parse.invoke(null, text, getInstance(pattern).getTemporalFormatter());
+        } catch (Exception e) {
+            throw new JSONException(unwrap(e));
+        }
+    }
+
+    private Object getTemporalFormatter() throws Exception {
+        Object formatter = this.temporalFormatter;
+        if (formatter == null) {
+            formatter = OF_PATTERN.invoke(null, this.pattern);
+            this.temporalFormatter = formatter;
+        }
+        return formatter;
+    }
+
+    private static Throwable unwrap(Exception e) {
+        return ((e instanceof InvocationTargetException) && (e.getCause() != null)) ? e.getCause() : e;
+    }
+
+    /**
+     * @return true if the format writes Gregorian dates with ASCII digits, like the fast path
+     */
+    private static boolean isIsoCalendar(SimpleDateFormat format) {
+        NumberFormat numbers = format.getNumberFormat();
+        return (format.getCalendar().getClass() == GregorianCalendar.class) && (numbers instanceof DecimalFormat)
+                && (((DecimalFormat) numbers).getDecimalFormatSymbols().getZeroDigit() == '0');
+    }
+
+    private static void digits(int value, int length, char[] buf, int pos) {
+        for (int i = pos + length - 1; i >= pos; i--) {
+            buf[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static Method getMethod(Class clazz, String name, Class... parameterTypes) {
+        try {
+            return (clazz != null) ? clazz.getMethod(name, parameterTypes) : null;
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    private static Class loadClass(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            log.debug("java.time is not available: " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.googlecode.jsonplugin;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Cache of the JSON text of values marked with @JSON(cache=true) on their getter, which are
+ * cached by identity, or by class and version when they implement {@link Versioned}. The root
+ * object is never cached. Later occurrences of the value are
+ * copied from the cache instead of being serialized again, as chars or as UTF-8 bytes depending
+ * on the output.</p>
+ * <p/>
+ * <p>The text depends on the settings of the writer and on the include/exclude filter at the
+ * position of the value, both are part of the key. Values are only cached when the filter
+ * patterns could be compiled or when there are no patterns. The least recently used fragments
+ * are evicted past a number of entries or of cached chars.</p>
+ */
+public final class JSONFragmentCache {
+    static final int DEFAULT_MAX_ENTRIES = 512;
+    static final int DEFAULT_MAX_CHARS = 4 * 1024 * 1024;
+
+    private static final JSONFragmentCache defaultCache = new JSONFragmentCache(DEFAULT_MAX_ENTRIES,
+            DEFAULT_MAX_CHARS);
+
+    private final int maxEntries;
+    private final long maxChars;
+    private final LinkedHashMap<Key, Fragment> fragments = new LinkedHashMap<Key, Fragment>(16, 0.75f, true);
+    private long chars;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxEntries maximum number of fragments
+     * @param maxChars   maximum number of chars held by the fragments
+     */
+    public JSONFragmentCache(int maxEntries, long maxChars) {
+        this.maxEntries = maxEntries;
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * @return the cache used by default by the writers
+     */
+    public static JSONFragmentCache getDefault() {
+        return defaultCache;
+    }
+
+    Fragment get(Key key) {
+        Fragment fragment;
+        synchronized (this.fragments) {
+            fragment = this.fragments.get(key);
+        }
+        if (fragment != null)
+            this.hits.incrementAndGet();
+        else
+            this.misses.incrementAndGet();
+        return fragment;
+    }
+
+    Fragment put(Key key, CharSequence text) {
+        Fragment fragment = new Fragment(text.toString());
+        if (fragment.chars.length > this.maxChars)
+            return fragment;
+
+        synchronized (this.fragments) {
+            Fragment previous = this.fragments.put(key, fragment);
+            if (previous != null)
+                this.chars -= previous.chars.length;
+            this.chars += fragment.chars.length;
+
+            Iterator<Fragment> it = this.fragments.values().iterator();
+            while ((this.fragments.size() > this.maxEntries) || (this.chars > this.maxChars)) {
+                this.chars -= it.next().chars.length;
+                it.remove();
+            }
+        }
+        return fragment;
+    }
+
+    /**
+     * @return number of values copied from the cache
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * @return number of cacheable values that had to be serialized
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * @return number of cached fragments
+     */
+    public int size() {
+        synchronized (this.fragments) {
+            return this.fragments.size();
+        }
+    }
+
+    /**
+     * Evicts every fragment, the counters are kept
+     */
+    public void clear() {
+        synchronized (this.fragments) {
+            this.fragments.clear();
+            this.chars = 0;
+        }
+    }
+
+    /**
+     * JSON text of a value, with its UTF-8 encoding
+     */
+    static final class Fragment {
+        final char[] chars;
+        final byte[] utf8;
+
+        Fragment(String text) {
+            this.chars = text.toCharArray();
+            try {
+                this.utf8 = text.getBytes("UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                //every JVM supports UTF-8
+                throw new IllegalStateException(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A value, by identity or by class and version, and everything its text depends on
+     */
+    static final class Key {
+        private final Object value;
+        private final boolean identity;
+        private final JSONPathFilter filter;
+        private final int filterState;
+        private final int flags;
+        private final Object serializers;
+        private final Object dateFormat;
+
+        /**
+         * @param value       the value, or its version
+         * @param identity    true to compare the value by identity
+         * @param filter      filter of the writer, or null
+         * @param filterState state of the filter at the position of the value
+         * @param flags       settings of the writer changing the text
+         * @param serializers type serializers of the writer, compared by identity
+         * @param dateFormat  date format of the property, compared by identity
+         */
+        Key(Object value, boolean identity, JSONPathFilter filter, int filterState, int flags,
+            Object serializers, Object dateFormat) {
+            this.value = value;
+            this.identity = identity;
+            this.filter = filter;
+            this.filterState = filterState;
+            this.flags = flags;
+            this.serializers = serializers;
+            this.dateFormat = dateFormat;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = this.identity ? System.identityHashCode(this.value) : this.value.hashCode();
+            hash = 31 * hash + System.identityHashCode(this.filter);
+            hash = 31 * hash + this.filterState;
+            return 31 * hash + this.flags;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key))
+                return false;
+            Key key = (Key) obj;
+            if ((this.identity != key.identity) || (this.filter != key.filter) || (this.filterState != key.filterState)
+                    || (this.flags != key.flags) || (this.serializers != key.serializers)
+                    || (this.dateFormat != key.dateFormat))
+                return false;
+            return this.identity ? (this.value == key.value) : this.value.equals(key.value);
+        }
+    }
+
+    /**
+     * Version of a {@link Versioned} value, scoped to its class
+     */
+    static final class Version {
+        private final Class clazz;
+        private final Object version;
+
+        Version(Class clazz, Object version) {
+            this.clazz = clazz;
+            this.version = version;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.clazz.hashCode() + this.version.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Version))
+                return false;
+            Version other = (Version) obj;
+            return (this.clazz == other.clazz) && this.version.equals(other.version);
+        }
+    }
+}
@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 
 /**
  * Populates an action from a JSON string
@@ -36,6 +37,7 @@ public class JSONInterceptor implements Interceptor {
     private boolean wrapWithComments;
     private boolean prefix;
     private String defaultEncoding = "ISO-8859-1";
+    private transient TypeSerializerRegistry serializers;
     private boolean ignoreHierarchy = true;
     private String root;
     private List<Pattern> excludeProperties;
@@ -48,6 +50,8 @@ public class JSONInterceptor implements Interceptor {
     private boolean excludeNullProperties;
     private String callbackParameter;
     private String contentType;
+    private int gzipLevel = Deflater.DEFAULT_COMPRESSION;
+    private int gzipMinSize = SerializationParams.DEFAULT_GZIP_MIN_SIZE;
 
     public void destroy() {
     }
@@ -123,11 +127,10 @@ public class JSONInterceptor implements Interceptor {
                     result = rpcResponse;
                 }
 
-                String json = JSONUtil.serialize(result, excludeProperties, includeProperties,
-                        ignoreHierarchy, excludeNullProperties);
+                String json = serialize(result);
                 json = addCallbackIfApplicable(request, json);
-                JSONUtil.writeJSONToResponse(
-                        new SerializationParams(response, this.defaultEncoding, this.wrapWithComments, json, true, false, noCache, -1, -1, prefix, contentType));
+                boolean writeGzip = enableGZIP && JSONUtil.isGzipInRequest(request);
+                JSONUtil.writeJSONToResponse(createSerializationParams(response, json, writeGzip));
 
                 return Action.NONE;
             } else {
@@ -139,11 +142,10 @@ public class JSONInterceptor implements Interceptor {
                 result = rpcResponse;
             }
 
-            String json = JSONUtil.serialize(result, excludeProperties, includeProperties, ignoreHierarchy, excludeNullProperties);
+            String json = serialize(result);
             json = addCallbackIfApplicable(request, json);
             boolean writeGzip = enableGZIP && JSONUtil.isGzipInRequest(request);
-            JSONUtil.writeJSONToResponse(
-                    new SerializationParams(response, this.defaultEncoding, this.wrapWithComments, json, true, writeGzip, noCache, -1, -1, prefix, contentType));
+            JSONUtil.writeJSONToResponse(createSerializationParams(response, json, writeGzip));
 
             return Action.NONE;
         } else {
@@ -157,6 +159,15 @@ public class JSONInterceptor implements Interceptor {
         return invocation.invoke();
     }
 
+    private SerializationParams createSerializationParams(HttpServletResponse response, String json,
+                                                          boolean gzip) {
+        SerializationParams serializationParams = new SerializationParams(response, this.defaultEncoding,
+                this.wrapWithComments, json, true, gzip, noCache, -1, -1, prefix, contentType);
+        serializationParams.setGzipLevel(gzipLevel);
+        serializationParams.setGzipMinSize(gzipMinSize);
+        return serializationParams;
+    }
+
     @SuppressWarnings("unchecked")
     public RPCResponse invoke(Object object, Map data) throws IllegalArgumentException,
             IllegalAccessException, InvocationTargetException, JSONException,
@@ -278,6 +289,19 @@ public class JSONInterceptor implements Interceptor {
         return json;
     }
 
+    private String serialize(Object result) throws JSONException {
+        JSONWriter writer = JSONWriter.acquire();
+        try {
+            writer.setIgnoreHierarchy(ignoreHierarchy);
+            writer.setSerializers(serializers);
+            if ((excludeProperties != null) || (includeProperties != null))
+                writer.setPathFilter(JSONPatternCache.getPathFilter(excludeProperties, includeProperties));
+            return writer.write(result, excludeProperties, includeProperties, excludeNullProperties);
+        } finally {
+            writer.release();
+        }
+    }
+
     public boolean isEnableSMD() {
         return this.enableSMD;
     }
@@ -308,6 +332,14 @@ public class JSONInterceptor implements Interceptor {
         this.defaultEncoding = val;
     }
 
+    /**
+     * @param serializers the serializers declared in the Struts configuration
+     */
+    @Inject(required = false)
+    public void setSerializers(TypeSerializerRegistry serializers) {
+        this.serializers = serializers;
+    }
+
     /**
      * Ignore properties defined on base classes of the root object.
      *
@@ -364,12 +396,9 @@ public class JSONInterceptor implements Interceptor {
      * @param commaDelim A comma-delimited list of regular expressions
      */
     public void setExcludeProperties(String commaDelim) {
-        List<String> excludePatterns = JSONUtil.asList(commaDelim);
+        List<Pattern> excludePatterns = JSONPatternCache.getPatterns(commaDelim);
         if (excludePatterns != null) {
-            this.excludeProperties = new ArrayList<Pattern>(excludePatterns.size());
-            for (String pattern : excludePatterns) {
-                this.excludeProperties.add(Pattern.compile(pattern));
-            }
+            this.excludeProperties = excludePatterns;
         }
     }
 
@@ -380,12 +409,9 @@ public class JSONInterceptor implements Interceptor {
      * @param commaDelim A comma-delimited list of regular expressions
      */
     public void setIncludeProperties(String commaDelim) {
-        List<String> includePatterns = JSONUtil.asList(commaDelim);
+        List<Pattern> includePatterns = JSONPatternCache.getPatterns(commaDelim);
         if (includePatterns != null) {
-            this.includeProperties = new ArrayList<Pattern>(includePatterns.size());
-            for (String pattern : includePatterns) {
-                this.includeProperties.add(Pattern.compile(pattern));
-            }
+            this.includeProperties = includePatterns;
         }
     }
 
@@ -402,6 +428,22 @@ public class JSONInterceptor implements Interceptor {
         this.enableGZIP = enableGZIP;
     }
 
+    /**
+     * @param gzipLevel deflate level of the compressed responses, from 1 (fastest) to 9 (smallest),
+     *                  or -1 for the default level of the JVM (default=-1)
+     */
+    public void setGzipLevel(int gzipLevel) {
+        this.gzipLevel = gzipLevel;
+    }
+
+    /**
+     * @param gzipMinSize responses smaller than this number of bytes are sent uncompressed even
+     *                    when enableGZIP is set (default=1024)
+     */
+    public void setGzipMinSize(int gzipMinSize) {
+        this.gzipMinSize = gzipMinSize;
+    }
+
     public boolean isNoCache() {
         return noCache;
     }
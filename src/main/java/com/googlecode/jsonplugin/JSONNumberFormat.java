@@ -0,0 +1,355 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.googlecode.jsonplugin;
+
+import java.math.BigInteger;
+
+/**
+ * <p>Formats numbers into a char array without allocating, for {@link JSONWriter}.</p>
+ * <p>Doubles and floats are written with the shortest decimal that reads back as the same value,
+ * computed with the Schubfach algorithm by Raffaello Giulietti ("The Schubfach way to render
+ * doubles"). The layout is the one of Double.toString() and Float.toString(): "100.0",
+ * "0.001", "1.0E-4", "1.0E300", "NaN", "-Infinity". The digits differ from older JDKs only where
+ * those print more digits than needed, both read back as the same value.</p>
+ */
+final class JSONNumberFormat {
+
+    /**
+     * Room needed in the array for any number
+     */
+    static final int MAX_CHARS = 32;
+
+    private static final int DOUBLE_PRECISION = 53;
+    private static final int DOUBLE_Q_MIN = -1074;
+    private static final long DOUBLE_C_MIN = 1L << 52;
+    private static final long DOUBLE_C_TINY = 3;
+
+    private static final int FLOAT_PRECISION = 24;
+    private static final int FLOAT_Q_MIN = -149;
+    private static final long FLOAT_C_MIN = 1L << 23;
+    private static final long FLOAT_C_TINY = 8;
+
+    private static final long MASK_63 = 0x7FFFFFFFFFFFFFFFL;
+
+    /**
+     * Exponents of the powers of ten in the table
+     */
+    private static final int K_MIN = -324;
+    private static final int K_MAX = 292;
+
+    /**
+     * 126 bit upper approximations g of 10^-k, with 10^-k = g 2^r and 2^125 <= g < 2^126,
+     * as pairs of 63 bit halves
+     */
+    private static final long[] G = new long[(K_MAX - K_MIN + 1) * 2];
+
+    static {
+        BigInteger mask = BigInteger.valueOf(MASK_63);
+        for (int k = K_MIN; k <= K_MAX; k++) {
+            int e = -k;
+            int r = flog2pow10(e) - 125;
+            BigInteger g;
+            if (e >= 0) {
+                BigInteger pow = BigInteger.TEN.pow(e);
+                g = (r <= 0) ? pow.shiftLeft(-r) : pow.shiftRight(r);
+            } else {
+                g = BigInteger.ONE.shiftLeft(-r).divide(BigInteger.TEN.pow(-e));
+            }
+            g = g.add(BigInteger.ONE);
+            G[(k - K_MIN) * 2] = g.shiftRight(63).longValue();
+            G[(k - K_MIN) * 2 + 1] = g.and(mask).longValue();
+        }
+    }
+
+    private static final char[] NAN = "NaN".toCharArray();
+    private static final char[] INFINITY = "Infinity".toCharArray();
+
+    private JSONNumberFormat() {
+    }
+
+    /**
+     * @return position after the last character written
+     */
+    public static int format(long value, char[] buf, int pos) {
+        if (value < 0) {
+            buf[pos++] = '-';
+            if (value == Long.MIN_VALUE) {
+                //can't be negated
+                pos = digits(-(value / 10), buf, pos);
+                buf[pos++] = (char) ('0' - (value % 10));
+                return pos;
+            }
+            value = -value;
+        }
+        return digits(value, buf, pos);
+    }
+
+    /**
+     * @return position after the last character written
+     */
+    public static int format(double value, char[] buf, int pos) {
+        long bits = Double.doubleToRawLongBits(value);
+        long t = bits & (DOUBLE_C_MIN - 1);
+        int bq = (int) (bits >>> 52) & 0x7FF;
+        if (bq == 0x7FF)
+            return special(t != 0, bits < 0, buf, pos);
+        if (bits < 0)
+            buf[pos++] = '-';
+        if (bq != 0) {
+            //normal
+            int mq = -DOUBLE_Q_MIN + 1 - bq;
+            long c = DOUBLE_C_MIN | t;
+            if ((0 < mq) && (mq < DOUBLE_PRECISION)) {
+                long f = c >> mq;
+                if (f << mq == c)
+                    return decimal(f, 0, buf, pos);
+            }
+            return shortest(-mq, c, 0, DOUBLE_C_MIN, DOUBLE_Q_MIN, buf, pos);
+        }
+        if (t != 0) {
+            //subnormal
+            return (t < DOUBLE_C_TINY) ? shortest(DOUBLE_Q_MIN, 10 * t, -1, DOUBLE_C_MIN, DOUBLE_Q_MIN, buf, pos)
+                    : shortest(DOUBLE_Q_MIN, t, 0, DOUBLE_C_MIN, DOUBLE_Q_MIN, buf, pos);
+        }
+        return zero(buf, pos);
+    }
+
+    /**
+     * @return position after the last character written
+     */
+    public static int format(float value, char[] buf, int pos) {
+        int bits = Float.floatToRawIntBits(value);
+        long t = bits & (FLOAT_C_MIN - 1);
+        int bq = (bits >>> 23) & 0xFF;
+        if (bq == 0xFF)
+            return special(t != 0, bits < 0, buf, pos);
+        if (bits < 0)
+            buf[pos++] = '-';
+        if (bq != 0) {
+            //normal
+            int mq = -FLOAT_Q_MIN + 1 - bq;
+            long c = FLOAT_C_MIN | t;
+            if ((0 < mq) && (mq < FLOAT_PRECISION)) {
+                long f = c >> mq;
+                if (f << mq == c)
+                    return decimal(f, 0, buf, pos);
+            }
+            return shortest(-mq, c, 0, FLOAT_C_MIN, FLOAT_Q_MIN, buf, pos);
+        }
+        if (t != 0) {
+            //subnormal
+            return (t < FLOAT_C_TINY) ? shortest(FLOAT_Q_MIN, 10 * t, -1, FLOAT_C_MIN, FLOAT_Q_MIN, buf, pos)
+                    : shortest(FLOAT_Q_MIN, t, 0, FLOAT_C_MIN, FLOAT_Q_MIN, buf, pos);
+        }
+        return zero(buf, pos);
+    }
+
+    private static int special(boolean nan, boolean negative, char[] buf, int pos) {
+        char[] text = nan ? NAN : INFINITY;
+        if (negative && !nan)
+            buf[pos++] = '-';
+        System.arraycopy(text, 0, buf, pos, text.length);
+        return pos + text.length;
+    }
+
+    private static int zero(char[] buf, int pos) {
+        buf[pos++] = '0';
+        buf[pos++] = '.';
+        buf[pos++] = '0';
+        return pos;
+    }
+
+    /**
+     * Writes the shortest decimal in the rounding interval of c 2^q
+     *
+     * @param dk   correction of the decimal exponent, for the tiny subnormals scaled up by 10
+     * @param cMin smallest significand of the normal values of the type
+     * @param qMin smallest exponent of the type
+     */
+    private static int shortest(int q, long c, int dk, long cMin, int qMin, char[] buf, int pos) {
+        int out = (int) c & 0x1;
+        long cb = c << 2;
+        long cbr = cb + 2;
+        long cbl;
+        int k;
+        if ((c != cMin) || (q == qMin)) {
+            cbl = cb - 2;
+            k = flog10pow2(q);
+        } else {
+            //the interval is asymmetric at the powers of two
+            cbl = cb - 1;
+            k = flog10threeQuartersPow2(q);
+        }
+        int h = q + flog2pow10(-k) + 2;
+
+        long g1 = G[(k - K_MIN) * 2];
+        long g0 = G[(k - K_MIN) * 2 + 1];
+        long vb = rop(g1, g0, cb << h);
+        long vbl = rop(g1, g0, cbl << h);
+        long vbr = rop(g1, g0, cbr << h);
+
+        long s = vb >> 2;
+        if (s >= 100) {
+            //try one digit less
+            long sp10 = 10 * multiplyHigh(s, 115292150460684698L << 4);
+            long tp10 = sp10 + 10;
+            boolean upin = vbl + out <= sp10 << 2;
+            boolean wpin = (tp10 << 2) + out <= vbr;
+            if (upin != wpin)
+                return decimal(upin ? sp10 : tp10, k, buf, pos);
+        }
+        long t = s + 1;
+        boolean uin = vbl + out <= s << 2;
+        boolean win = (t << 2) + out <= vbr;
+        if (uin != win)
+            return decimal(uin ? s : t, k + dk, buf, pos);
+        //both candidates are in the interval, pick the closest one, the even one on ties
+        long cmp = vb - ((s + t) << 1);
+        return decimal(((cmp < 0) || ((cmp == 0) && ((s & 1) == 0))) ? s : t, k + dk, buf, pos);
+    }
+
+    /**
+     * Rounds g c to odd, scaled down by 2^127
+     */
+    private static long rop(long g1, long g0, long cp) {
+        long x1 = multiplyHigh(g0, cp);
+        long y0 = g1 * cp;
+        long y1 = multiplyHigh(g1, cp);
+        long z = (y0 >>> 1) + x1;
+        long vbp = y1 + (z >>> 63);
+        return vbp | (((z & MASK_63) + MASK_63) >>> 63);
+    }
+
+    /**
+     * High 64 bits of the 128 bit product
+     */
+    private static long multiplyHigh(long x, long y) {
+        long x1 = x >> 32;
+        long x2 = x & 0xFFFFFFFFL;
+        long y1 = y >> 32;
+        long y2 = y & 0xFFFFFFFFL;
+        long z2 = x2 * y2;
+        long t = x1 * y2 + (z2 >>> 32);
+        long z1 = t & 0xFFFFFFFFL;
+        long z0 = t >> 32;
+        z1 += x2 * y1;
+        return x1 * y1 + z0 + (z1 >> 32);
+    }
+
+    /**
+     * @return floor(q log10(2))
+     */
+    private static int flog10pow2(int q) {
+        return (int) (q * 661971961083L >> 41);
+    }
+
+    /**
+     * @return floor(log10(3/4 2^q))
+     */
+    private static int flog10threeQuartersPow2(int q) {
+        return (int) (q * 661971961083L - 274743187321L >> 41);
+    }
+
+    /**
+     * @return floor(e log2(10))
+     */
+    private static int flog2pow10(int e) {
+        return (int) (e * 913124641741L >> 38);
+    }
+
+    /**
+     * Writes f 10^e like Double.toString() does
+     */
+    private static int decimal(long f, int e, char[] buf, int pos) {
+        while (f % 10 == 0) {
+            f /= 10;
+            e++;
+        }
+        int length = length(f);
+        //f 10^e = 0.ddd 10^exp
+        int exp = e + length;
+
+        if ((0 < exp) && (exp <= 7)) {
+            //ddd.ddd, at least one digit after the point
+            if (length <= exp) {
+                pos = digits(f, buf, pos);
+                for (int i = length; i < exp; i++)
+                    buf[pos++] = '0';
+                buf[pos++] = '.';
+                buf[pos++] = '0';
+            } else {
+                int end = pos + length + 1;
+                int point = pos + exp;
+                for (int i = end - 1; i > point; i--) {
+                    buf[i] = (char) ('0' + f % 10);
+                    f /= 10;
+                }
+                buf[point] = '.';
+                digits(f, buf, pos);
+                pos = end;
+            }
+        } else if ((-3 < exp) && (exp <= 0)) {
+            //0.00ddd
+            buf[pos++] = '0';
+            buf[pos++] = '.';
+            for (int i = exp; i < 0; i++)
+                buf[pos++] = '0';
+            pos = digits(f, buf, pos);
+        } else {
+            //d.dddE-n
+            int end = pos + length + 1;
+            for (int i = end - 1; i > pos + 1; i--) {
+                buf[i] = (char) ('0' + f % 10);
+                f /= 10;
+            }
+            buf[pos] = (char) ('0' + f);
+            buf[pos + 1] = '.';
+            pos = end;
+            if (length == 1)
+                buf[pos++] = '0';
+            buf[pos++] = 'E';
+            pos = format((long) (exp - 1), buf, pos);
+        }
+        return pos;
+    }
+
+    /**
+     * Writes the digits of a non negative value
+     */
+    private static int digits(long value, char[] buf, int pos) {
+        int end = pos + length(value);
+        for (int i = end - 1; i >= pos; i--) {
+            buf[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+
+    /**
+     * @return number of digits of a non negative value
+     */
+    private static int length(long value) {
+        int length = 1;
+        for (long limit = 10; (value >= limit) && (length < 19); limit *= 10)
+            length++;
+        return length;
+    }
+}
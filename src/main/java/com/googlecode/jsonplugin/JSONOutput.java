@@ -0,0 +1,91 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.googlecode.jsonplugin;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * <p>Destination of the text generated by {@link JSONWriter}. Implementations buffer a bounded
+ * amount of output and pass it on to their target as the object graph is walked, so the whole
+ * document never has to be held in memory.</p>
+ */
+abstract class JSONOutput extends Writer {
+
+    /**
+     * Pushes the buffered output to the target, without flushing the target itself
+     *
+     * @throws IOException when the target can't be written to
+     */
+    public abstract void flushBuffer() throws IOException;
+
+    /**
+     * @return number of chars or bytes written so far, including the buffered ones
+     */
+    public abstract long getCount();
+
+    /**
+     * Writes text that was encoded in advance, like the keys of the bean properties
+     *
+     * @param chars the text
+     * @param utf8  the same text encoded in UTF-8
+     * @param skip  number of leading ASCII characters of the text not to write
+     * @throws IOException when the target can't be written to
+     */
+    public void writeToken(char[] chars, byte[] utf8, int skip) throws IOException {
+        this.write(chars, skip, chars.length - skip);
+    }
+
+    @Override
+    public Writer append(CharSequence csq) throws IOException {
+        String s = String.valueOf(csq);
+        this.write(s, 0, s.length());
+        return this;
+    }
+
+    @Override
+    public Writer append(CharSequence csq, int start, int end) throws IOException {
+        if (csq instanceof String) {
+            this.write((String) csq, start, end - start);
+        } else if (csq == null) {
+            this.write("null", start, end - start);
+        } else {
+            for (int i = start; i < end; i++)
+                this.write(csq.charAt(i));
+        }
+        return this;
+    }
+
+    @Override
+    public Writer append(char c) throws IOException {
+        this.write(c);
+        return this;
+    }
+
+    /**
+     * Writes the buffered output to the target. The target is not closed here, it is owned by the
+     * caller; subclasses writing to a stream may close it like an OutputStreamWriter does.
+     */
+    @Override
+    public void close() throws IOException {
+        this.flushBuffer();
+    }
+}
@@ -0,0 +1,880 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.googlecode.jsonplugin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p>The includeProperties/excludeProperties patterns compiled into a single deterministic
+ * automaton over the OGNL path of the serialized properties.</p>
+ * <p>Instead of building the path of every property as a String and running each Pattern on it,
+ * {@link JSONWriter} keeps the automaton state of the current path and advances it with the
+ * name or index of each child. Every state knows whether its path is included, and whether all
+ * or none of the paths below it are, so filtering stops for subtrees that are fully included
+ * and whole subtrees are skipped when everything below them is excluded.</p>
+ * <p>Only regular expressions can be compiled: literals, '.', character classes, the predefined
+ * classes \d \w \s and their negations, groups, alternation, greedy or lazy quantifiers and '^'
+ * or '$' at the ends of the pattern. {@link #compile(Collection, Collection)} returns null for
+ * anything else, and the patterns are then matched one by one like before.</p>
+ * <p>Instances are immutable, apart from the plans of the beans filtered with them, and can be
+ * shared between threads.</p>
+ */
+final class JSONPathFilter {
+    private static final Log log = LogFactory.getLog(JSONPathFilter.class);
+
+    /**
+     * State of the paths below which nothing is excluded, they are not tracked anymore
+     */
+    static final int ALL_INCLUDED = -1;
+
+    /**
+     * State of the empty path, the root object
+     */
+    static final int ROOT = 0;
+
+    private static final int MAX_NFA_STATES = 10000;
+    private static final int MAX_DFA_STATES = 2000;
+    private static final int MAX_REPETITION = 100;
+    private static final int MAX_CODE_POINT = Character.MAX_CODE_POINT;
+
+    private static final byte EXCLUDE = 1;
+    private static final byte INCLUDE = 2;
+
+    private final int[] asciiClasses;
+    private final int[] intervalStarts;
+    private final int[] intervalClasses;
+    private final int classCount;
+    private final int[] transitions;
+    private final boolean[] excluded;
+    private final boolean[] childrenExcluded;
+    private final boolean[] childrenIncluded;
+    private final ConcurrentMap<JSONBeanInfo.PlanKey, JSONBeanInfo.Plan> plans =
+            new ConcurrentHashMap<JSONBeanInfo.PlanKey, JSONBeanInfo.Plan>();
+
+    private JSONPathFilter(int[] intervalStarts, int[] intervalClasses, int classCount, int[] transitions,
+                           boolean[] excluded, boolean[] childrenExcluded, boolean[] childrenIncluded) {
+        this.intervalStarts = intervalStarts;
+        this.intervalClasses = intervalClasses;
+        this.classCount = classCount;
+        this.transitions = transitions;
+        this.excluded = excluded;
+        this.childrenExcluded = childrenExcluded;
+        this.childrenIncluded = childrenIncluded;
+
+        this.asciiClasses = new int[128];
+        for (int c = 0; c < 128; c++)
+            this.asciiClasses[c] = this.lookupClass(c);
+    }
+
+    /**
+     * Compiles the patterns into an automaton
+     *
+     * @param excludeProperties patterns of the properties to exclude, may be null
+     * @param includeProperties patterns of the properties to include, may be null
+     * @return the automaton, or null if a pattern is not supported or the automaton would be too big
+     */
+    public static JSONPathFilter compile(Collection<Pattern> excludeProperties, Collection<Pattern> includeProperties) {
+        try {
+            Nfa nfa = new Nfa();
+            int start = nfa.newState();
+            boolean hasInclude = false;
+            if (excludeProperties != null) {
+                for (Pattern pattern : excludeProperties)
+                    nfa.addPattern(start, pattern, EXCLUDE);
+            }
+            if (includeProperties != null) {
+                for (Pattern pattern : includeProperties) {
+                    nfa.addPattern(start, pattern, INCLUDE);
+                    hasInclude = true;
+                }
+            }
+            return new Dfa(nfa, start, hasInclude).build();
+        } catch (UnsupportedPatternException e) {
+            if (log.isDebugEnabled())
+                log.debug("Properties are filtered with regular expressions: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return the plans of the beans filtered with this automaton, see {@link JSONBeanInfo#getPlan}
+     */
+    ConcurrentMap<JSONBeanInfo.PlanKey, JSONBeanInfo.Plan> getPlans() {
+        return this.plans;
+    }
+
+    /**
+     * @param state state of the parent path
+     * @param name  name of the property, or map key
+     * @return state of the path of the property
+     */
+    public int property(int state, String name) {
+        if (state == ALL_INCLUDED)
+            return ALL_INCLUDED;
+        if (state != ROOT)
+            state = this.step(state, '.');
+        for (int i = 0, length = name.length(); i < length; ) {
+            int c = name.codePointAt(i);
+            state = this.step(state, c);
+            i += Character.charCount(c);
+        }
+        return this.reduce(state);
+    }
+
+    /**
+     * @param state state of the parent path
+     * @param index index of the element in its array or collection
+     * @return state of the path of the element
+     */
+    public int index(int state, int index) {
+        if (state == ALL_INCLUDED)
+            return ALL_INCLUDED;
+        state = this.step(state, '[');
+        int divisor = 1;
+        while (index / divisor >= 10)
+            divisor *= 10;
+        for (; divisor > 0; divisor /= 10)
+            state = this.step(state, '0' + (index / divisor) % 10);
+        state = this.step(state, ']');
+        return this.reduce(state);
+    }
+
+    /**
+     * @return true if the path of the state is filtered out
+     */
+    public boolean isExcluded(int state) {
+        return (state != ALL_INCLUDED) && this.excluded[state];
+    }
+
+    /**
+     * @return true if every path below the state is filtered out
+     */
+    public boolean isExcludingChildren(int state) {
+        return (state != ALL_INCLUDED) && this.childrenExcluded[state];
+    }
+
+    /**
+     * @return the state, or ALL_INCLUDED if nothing at or below it can be excluded
+     */
+    private int reduce(int state) {
+        return (!this.excluded[state] && this.childrenIncluded[state]) ? ALL_INCLUDED : state;
+    }
+
+    private int step(int state, int c) {
+        return this.transitions[state * this.classCount + this.charClass(c)];
+    }
+
+    private int charClass(int c) {
+        return (c < 128) ? this.asciiClasses[c] : this.lookupClass(c);
+    }
+
+    private int lookupClass(int c) {
+        int i = Arrays.binarySearch(this.intervalStarts, c);
+        return this.intervalClasses[(i >= 0) ? i : -i - 2];
+    }
+
+    private static class UnsupportedPatternException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedPatternException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Sorted, non overlapping, inclusive code point ranges
+     */
+    private static final class CharSet {
+        final int[] ranges;
+
+        CharSet(int[] ranges) {
+            this.ranges = ranges;
+        }
+
+        static CharSet of(int... bounds) {
+            return union(new CharSet(new int[0]), bounds);
+        }
+
+        static CharSet union(CharSet set, int[] bounds) {
+            List<int[]> list = new ArrayList<int[]>();
+            for (int i = 0; i < set.ranges.length; i += 2)
+                list.add(new int[]{set.ranges[i], set.ranges[i + 1]});
+            for (int i = 0; i < bounds.length; i += 2)
+                list.add(new int[]{bounds[i], bounds[i + 1]});
+            int[][] sorted = list.toArray(new int[list.size()][]);
+            Arrays.sort(sorted, new java.util.Comparator<int[]>() {
+                public int compare(int[] a, int[] b) {
+                    return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+                }
+            });
+            int[] merged = new int[sorted.length * 2];
+            int n = 0;
+            for (int[] range : sorted) {
+                if ((n > 0) && (range[0] <= merged[n - 1] + 1)) {
+                    merged[n - 1] = Math.max(merged[n - 1], range[1]);
+                } else {
+                    merged[n++] = range[0];
+                    merged[n++] = range[1];
+                }
+            }
+            int[] ranges = new int[n];
+            System.arraycopy(merged, 0, ranges, 0, n);
+            return new CharSet(ranges);
+        }
+
+        CharSet union(CharSet other) {
+            return union(this, other.ranges);
+        }
+
+        CharSet complement() {
+            List<Integer> bounds = new ArrayList<Integer>();
+            int next = 0;
+            for (int i = 0; i < this.ranges.length; i += 2) {
+                if (this.ranges[i] > next) {
+                    bounds.add(next);
+                    bounds.add(this.ranges[i] - 1);
+                }
+                next = this.ranges[i + 1] + 1;
+            }
+            if (next <= MAX_CODE_POINT) {
+                bounds.add(next);
+                bounds.add(MAX_CODE_POINT);
+            }
+            int[] ranges = new int[bounds.size()];
+            for (int i = 0; i < ranges.length; i++)
+                ranges[i] = bounds.get(i);
+            return new CharSet(ranges);
+        }
+
+        boolean contains(int c) {
+            for (int i = 0; i < this.ranges.length; i += 2) {
+                if (c < this.ranges[i])
+                    return false;
+                if (c <= this.ranges[i + 1])
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    private static final CharSet DIGIT = CharSet.of('0', '9');
+    private static final CharSet WORD = CharSet.of('a', 'z', 'A', 'Z', '_', '_', '0', '9');
+    private static final CharSet SPACE = CharSet.of(' ', ' ', '\t', '\n', 0x0B, 0x0B, '\f', '\r');
+    private static final CharSet DOT = CharSet.of('\n', '\n', '\r', '\r', 0x85, 0x85, 0x2028, 0x2029).complement();
+
+    /**
+     * Regular expression syntax tree
+     */
+    private static class Node {
+    }
+
+    private static final class SetNode extends Node {
+        final CharSet set;
+
+        SetNode(CharSet set) {
+            this.set = set;
+        }
+    }
+
+    private static final class ListNode extends Node {
+        final List<Node> nodes;
+        final boolean alternation;
+
+        ListNode(List<Node> nodes, boolean alternation) {
+            this.nodes = nodes;
+            this.alternation = alternation;
+        }
+    }
+
+    private static final class RepeatNode extends Node {
+        final Node node;
+        final int min;
+        final int max;
+
+        RepeatNode(Node node, int min, int max) {
+            this.node = node;
+            this.min = min;
+            this.max = max;
+        }
+    }
+
+    /**
+     * Parses the regular subset of the java.util.regex syntax
+     */
+    private static final class Parser {
+        private final String regex;
+        private int pos;
+
+        Parser(String regex) {
+            this.regex = regex;
+        }
+
+        Node parse() throws UnsupportedPatternException {
+            Node node = this.alternation(true);
+            if (this.pos < this.regex.length())
+                throw this.unsupported();
+            return node;
+        }
+
+        private UnsupportedPatternException unsupported() {
+            return new UnsupportedPatternException("'" + this.regex + "' at index " + this.pos);
+        }
+
+        private boolean more() {
+            return this.pos < this.regex.length();
+        }
+
+        private char peek() {
+            return this.regex.charAt(this.pos);
+        }
+
+        private Node alternation(boolean top) throws UnsupportedPatternException {
+            List<Node> alternatives = new ArrayList<Node>();
+            alternatives.add(this.concatenation(top));
+            while (this.more() && (this.peek() == '|')) {
+                this.pos++;
+                alternatives.add(this.concatenation(top));
+            }
+            return alternatives.size() == 1 ? alternatives.get(0) : new ListNode(alternatives, true);
+        }
+
+        private Node concatenation(boolean top) throws UnsupportedPatternException {
+            List<Node> nodes = new ArrayList<Node>();
+            int start = this.pos;
+            while (this.more() && (this.peek() != '|') && (this.peek() != ')')) {
+                char c = this.peek();
+                if (c == '^') {
+                    //matches() anchors the whole pattern anyway
+                    if (!top || (this.pos != start))
+                        throw this.unsupported();
+                    this.pos++;
+                } else if (c == '$') {
+                    this.pos++;
+                    if (!top || (this.more() && (this.peek() != '|')))
+                        throw this.unsupported();
+                } else {
+                    nodes.add(this.quantifiers(this.atom()));
+                }
+            }
+            return new ListNode(nodes, false);
+        }
+
+        private Node atom() throws UnsupportedPatternException {
+            char c = this.peek();
+            switch (c) {
+                case '(':
+                    this.pos++;
+                    if (this.more() && (this.peek() == '?')) {
+                        if (!this.regex.startsWith("?:", this.pos))
+                            throw this.unsupported();
+                        this.pos += 2;
+                    }
+                    Node group = this.alternation(false);
+                    if (!this.more() || (this.peek() != ')'))
+                        throw this.unsupported();
+                    this.pos++;
+                    return group;
+                case '[':
+                    return new SetNode(this.charClass());
+                case '.':
+                    this.pos++;
+                    return new SetNode(DOT);
+                case '\\':
+                    return new SetNode(this.escape());
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                    throw this.unsupported();
+                default:
+                    int cp = this.regex.codePointAt(this.pos);
+                    this.pos += Character.charCount(cp);
+                    return new SetNode(CharSet.of(cp, cp));
+            }
+        }
+
+        private Node quantifiers(Node node) throws UnsupportedPatternException {
+            while (this.more()) {
+                char c = this.peek();
+                int min;
+                int max;
+                if (c == '*') {
+                    min = 0;
+                    max = -1;
+                    this.pos++;
+                } else if (c == '+') {
+                    min = 1;
+                    max = -1;
+                    this.pos++;
+                } else if (c == '?') {
+                    min = 0;
+                    max = 1;
+                    this.pos++;
+                } else if (c == '{') {
+                    this.pos++;
+                    min = this.number();
+                    max = min;
+                    if (this.more() && (this.peek() == ',')) {
+                        this.pos++;
+                        max = (this.more() && (this.peek() == '}')) ? -1 : this.number();
+                    }
+                    if (!this.more() || (this.peek() != '}') || ((max != -1) && (max < min)))
+                        throw this.unsupported();
+                    this.pos++;
+                } else {
+                    return node;
+                }
+
+                if (this.more() && (this.peek() == '+')) {
+                    //possessive
+                    throw this.unsupported();
+                } else if (this.more() && (this.peek() == '?')) {
+                    //reluctant, matches the same strings
+                    this.pos++;
+                }
+                node = new RepeatNode(node, min, max);
+            }
+            return node;
+        }
+
+        private int number() throws UnsupportedPatternException {
+            int start = this.pos;
+            while (this.more() && Character.isDigit(this.peek()) && (this.pos - start < 4))
+                this.pos++;
+            if (this.pos == start)
+                throw this.unsupported();
+            int n = Integer.parseInt(this.regex.substring(start, this.pos));
+            if (n > MAX_REPETITION)
+                throw this.unsupported();
+            return n;
+        }
+
+        private CharSet charClass() throws UnsupportedPatternException {
+            this.pos++;
+            boolean negate = false;
+            if (this.more() && (this.peek() == '^')) {
+                negate = true;
+                this.pos++;
+            }
+            if (this.more() && (this.peek() == ']'))
+                throw this.unsupported();
+
+            CharSet set = CharSet.of();
+            while (true) {
+                if (!this.more())
+                    throw this.unsupported();
+                char c = this.peek();
+                if (c == ']') {
+                    this.pos++;
+                    break;
+                }
+                if ((c == '[') || this.regex.startsWith("&&", this.pos))
+                    throw this.unsupported();
+
+                CharSet item;
+                if (c == '\\') {
+                    item = this.escape();
+                } else {
+                    int cp = this.regex.codePointAt(this.pos);
+                    this.pos += Character.charCount(cp);
+                    item = CharSet.of(cp, cp);
+                }
+
+                if (this.more() && (this.peek() == '-') && (this.pos + 1 < this.regex.length())
+                        && (this.regex.charAt(this.pos + 1) != ']')) {
+                    //range
+                    this.pos++;
+                    CharSet end;
+                    if (this.peek() == '\\') {
+                        end = this.escape();
+                    } else if (this.peek() == '[') {
+                        throw this.unsupported();
+                    } else {
+                        int cp = this.regex.codePointAt(this.pos);
+                        this.pos += Character.charCount(cp);
+                        end = CharSet.of(cp, cp);
+                    }
+                    if (!isSingle(item) || !isSingle(end) || (item.ranges[0] > end.ranges[0]))
+                        throw this.unsupported();
+                    item = CharSet.of(item.ranges[0], end.ranges[0]);
+                }
+                set = set.union(item);
+            }
+            return negate ? set.complement() : set;
+        }
+
+        private static boolean isSingle(CharSet set) {
+            return (set.ranges.length == 2) && (set.ranges[0] == set.ranges[1]);
+        }
+
+        private CharSet escape() throws UnsupportedPatternException {
+            this.pos++;
+            if (!this.more())
+                throw this.unsupported();
+            int c = this.regex.codePointAt(this.pos);
+            this.pos += Character.charCount(c);
+            switch (c) {
+                case 'd':
+                    return DIGIT;
+                case 'D':
+                    return DIGIT.complement();
+                case 'w':
+                    return WORD;
+                case 'W':
+                    return WORD.complement();
+                case 's':
+                    return SPACE;
+                case 'S':
+                    return SPACE.complement();
+                case 't':
+                    return CharSet.of('\t', '\t');
+                case 'n':
+                    return CharSet.of('\n', '\n');
+                case 'r':
+                    return CharSet.of('\r', '\r');
+                case 'f':
+                    return CharSet.of('\f', '\f');
+                case 'a':
+                    return CharSet.of(0x07, 0x07);
+                case 'e':
+                    return CharSet.of(0x1B, 0x1B);
+                case 'x':
+                    return this.hex(2);
+                case 'u':
+                    return this.hex(4);
+                default:
+                    //escaped letters and digits have special meanings, everything else is literal
+                    if (((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) || ((c >= '0') && (c <= '9')))
+                        throw this.unsupported();
+                    return CharSet.of(c, c);
+            }
+        }
+
+        private CharSet hex(int digits) throws UnsupportedPatternException {
+            if (this.pos + digits > this.regex.length())
+                throw this.unsupported();
+            try {
+                int c = Integer.parseInt(this.regex.substring(this.pos, this.pos + digits), 16);
+                this.pos += digits;
+                return CharSet.of(c, c);
+            } catch (NumberFormatException e) {
+                throw this.unsupported();
+            }
+        }
+    }
+
+    /**
+     * Thompson automaton of all the patterns, with transitions on character sets
+     */
+    private static final class Nfa {
+        final List<int[]> epsilons = new ArrayList<int[]>();
+        final List<CharSet> edgeSets = new ArrayList<CharSet>();
+        final List<Integer> edgeTargets = new ArrayList<Integer>();
+        final List<Integer> edgeSources = new ArrayList<Integer>();
+        final Map<Integer, Byte> accepts = new HashMap<Integer, Byte>();
+        int size;
+
+        int newState() throws UnsupportedPatternException {
+            if (this.size == MAX_NFA_STATES)
+                throw new UnsupportedPatternException("too many states");
+            this.epsilons.add(new int[0]);
+            return this.size++;
+        }
+
+        void epsilon(int from, int to) {
+            int[] old = this.epsilons.get(from);
+            int[] targets = new int[old.length + 1];
+            System.arraycopy(old, 0, targets, 0, old.length);
+            targets[old.length] = to;
+            this.epsilons.set(from, targets);
+        }
+
+        void addPattern(int start, Pattern pattern, byte type) throws UnsupportedPatternException {
+            if (pattern.flags() != 0)
+                throw new UnsupportedPatternException("'" + pattern.pattern() + "' has flags");
+            int[] fragment = this.fragment(new Parser(pattern.pattern()).parse());
+            this.epsilon(start, fragment[0]);
+            Byte previous = this.accepts.get(fragment[1]);
+            this.accepts.put(fragment[1], (byte) (type | (previous != null ? previous : 0)));
+        }
+
+        /**
+         * @return entry and exit states of the automaton of the node
+         */
+        int[] fragment(Node node) throws UnsupportedPatternException {
+            if (node instanceof SetNode) {
+                int in = this.newState();
+                int out = this.newState();
+                this.edgeSources.add(in);
+                this.edgeSets.add(((SetNode) node).set);
+                this.edgeTargets.add(out);
+                return new int[]{in, out};
+            } else if (node instanceof ListNode) {
+                ListNode list = (ListNode) node;
+                int in = this.newState();
+                if (list.alternation) {
+                    int out = this.newState();
+                    for (Node n : list.nodes) {
+                        int[] f = this.fragment(n);
+                        this.epsilon(in, f[0]);
+                        this.epsilon(f[1], out);
+                    }
+                    return new int[]{in, out};
+                }
+                int out = in;
+                for (Node n : list.nodes) {
+                    int[] f = this.fragment(n);
+                    this.epsilon(out, f[0]);
+                    out = f[1];
+                }
+                return new int[]{in, out};
+            } else {
+                RepeatNode repeat = (RepeatNode) node;
+                int in = this.newState();
+                int out = in;
+                for (int i = 0; i < repeat.min; i++) {
+                    int[] f = this.fragment(repeat.node);
+                    this.epsilon(out, f[0]);
+                    out = f[1];
+                }
+                if (repeat.max == -1) {
+                    int[] f = this.fragment(repeat.node);
+                    this.epsilon(out, f[0]);
+                    this.epsilon(f[1], out);
+                } else {
+                    int end = this.newState();
+                    for (int i = repeat.min; i < repeat.max; i++) {
+                        int[] f = this.fragment(repeat.node);
+                        this.epsilon(out, f[0]);
+                        this.epsilon(out, end);
+                        out = f[1];
+                    }
+                    this.epsilon(out, end);
+                    out = end;
+                }
+                return new int[]{in, out};
+            }
+        }
+    }
+
+    /**
+     * Subset construction of the deterministic automaton
+     */
+    private static final class Dfa {
+        private final Nfa nfa;
+        private final int nfaStart;
+        private final boolean hasInclude;
+
+        Dfa(Nfa nfa, int nfaStart, boolean hasInclude) {
+            this.nfa = nfa;
+            this.nfaStart = nfaStart;
+            this.hasInclude = hasInclude;
+        }
+
+        JSONPathFilter build() throws UnsupportedPatternException {
+            //split the code points into classes that no edge can tell apart
+            List<Integer> bounds = new ArrayList<Integer>();
+            bounds.add(0);
+            for (CharSet set : this.nfa.edgeSets) {
+                for (int i = 0; i < set.ranges.length; i += 2) {
+                    bounds.add(set.ranges[i]);
+                    if (set.ranges[i + 1] < MAX_CODE_POINT)
+                        bounds.add(set.ranges[i + 1] + 1);
+                }
+            }
+            int[] starts = unique(bounds);
+            int edgeCount = this.nfa.edgeSets.size();
+            Map<BitSet, Integer> classIds = new HashMap<BitSet, Integer>();
+            List<BitSet> classEdges = new ArrayList<BitSet>();
+            int[] intervalClasses = new int[starts.length];
+            for (int i = 0; i < starts.length; i++) {
+                BitSet edges = new BitSet(edgeCount);
+                for (int e = 0; e < edgeCount; e++) {
+                    if (this.nfa.edgeSets.get(e).contains(starts[i]))
+                        edges.set(e);
+                }
+                Integer id = classIds.get(edges);
+                if (id == null) {
+                    id = classEdges.size();
+                    classIds.put(edges, id);
+                    classEdges.add(edges);
+                }
+                intervalClasses[i] = id;
+            }
+            int classCount = classEdges.size();
+
+            //the root gets its own state, so that ROOT is only ever the empty path
+            List<int[]> states = new ArrayList<int[]>();
+            Map<StateKey, Integer> ids = new HashMap<StateKey, Integer>();
+            states.add(this.closure(new int[]{this.nfaStart}));
+            List<int[]> rows = new ArrayList<int[]>();
+            for (int s = 0; s < states.size(); s++) {
+                int[] current = states.get(s);
+                int[] row = new int[classCount];
+                for (int c = 0; c < classCount; c++) {
+                    int[] next = this.closure(this.move(current, classEdges.get(c)));
+                    StateKey key = new StateKey(next);
+                    Integer id = ids.get(key);
+                    if (id == null) {
+                        if (states.size() == MAX_DFA_STATES)
+                            throw new UnsupportedPatternException("too many states");
+                        id = states.size();
+                        states.add(next);
+                        ids.put(key, id);
+                    }
+                    row[c] = id;
+                }
+                rows.add(row);
+            }
+
+            int count = states.size();
+            int[] transitions = new int[count * classCount];
+            boolean[] excluded = new boolean[count];
+            for (int s = 0; s < count; s++) {
+                System.arraycopy(rows.get(s), 0, transitions, s * classCount, classCount);
+                byte accepts = 0;
+                for (int n : states.get(s)) {
+                    Byte type = this.nfa.accepts.get(n);
+                    if (type != null)
+                        accepts |= type;
+                }
+                excluded[s] = ((accepts & EXCLUDE) != 0) || (this.hasInclude && ((accepts & INCLUDE) == 0));
+            }
+
+            //can any path below a state be included or excluded
+            boolean[] anyIncluded = new boolean[count];
+            boolean[] anyExcluded = new boolean[count];
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (int s = 0; s < count; s++) {
+                    for (int c = 0; c < classCount; c++) {
+                        int t = transitions[s * classCount + c];
+                        if (!anyIncluded[s] && (!excluded[t] || anyIncluded[t])) {
+                            anyIncluded[s] = true;
+                            changed = true;
+                        }
+                        if (!anyExcluded[s] && (excluded[t] || anyExcluded[t])) {
+                            anyExcluded[s] = true;
+                            changed = true;
+                        }
+                    }
+                }
+            }
+            boolean[] childrenExcluded = new boolean[count];
+            boolean[] childrenIncluded = new boolean[count];
+            for (int s = 0; s < count; s++) {
+                childrenExcluded[s] = !anyIncluded[s];
+                childrenIncluded[s] = !anyExcluded[s];
+            }
+            //an empty map key below the root keeps the empty path
+            childrenExcluded[ROOT] &= excluded[ROOT];
+            childrenIncluded[ROOT] &= !excluded[ROOT];
+
+            return new JSONPathFilter(starts, intervalClasses, classCount, transitions, excluded,
+                    childrenExcluded, childrenIncluded);
+        }
+
+        private int[] move(int[] states, BitSet edges) {
+            BitSet targets = new BitSet();
+            for (int e = edges.nextSetBit(0); e >= 0; e = edges.nextSetBit(e + 1)) {
+                if (Arrays.binarySearch(states, this.nfa.edgeSources.get(e)) >= 0)
+                    targets.set(this.nfa.edgeTargets.get(e));
+            }
+            return toArray(targets);
+        }
+
+        private int[] closure(int[] states) {
+            BitSet seen = new BitSet(this.nfa.size);
+            int[] stack = new int[this.nfa.size];
+            int top = 0;
+            for (int s : states) {
+                seen.set(s);
+                stack[top++] = s;
+            }
+            while (top > 0) {
+                int s = stack[--top];
+                for (int t : this.nfa.epsilons.get(s)) {
+                    if (!seen.get(t)) {
+                        seen.set(t);
+                        stack[top++] = t;
+                    }
+                }
+            }
+            return toArray(seen);
+        }
+
+        private static int[] toArray(BitSet set) {
+            int[] array = new int[set.cardinality()];
+            int i = 0;
+            for (int s = set.nextSetBit(0); s >= 0; s = set.nextSetBit(s + 1))
+                array[i++] = s;
+            return array;
+        }
+
+        private static int[] unique(List<Integer> values) {
+            int[] array = new int[values.size()];
+            for (int i = 0; i < array.length; i++)
+                array[i] = values.get(i);
+            Arrays.sort(array);
+            int n = 0;
+            for (int i = 0; i < array.length; i++) {
+                if ((n == 0) || (array[n - 1] != array[i]))
+                    array[n++] = array[i];
+            }
+            int[] result = new int[n];
+            System.arraycopy(array, 0, result, 0, n);
+            return result;
+        }
+    }
+
+    private static final class StateKey {
+        private final int[] states;
+        private final int hash;
+
+        StateKey(int[] states) {
+            this.states = states;
+            this.hash = Arrays.hashCode(states);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return (obj instanceof StateKey) && Arrays.equals(this.states, ((StateKey) obj).states);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.googlecode.jsonplugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p>Process wide cache of the compiled includeProperties/excludeProperties parameters.</p>
+ * <p>Struts creates a new result and interceptor per invocation and sets the same parameter
+ * strings on each of them, the patterns and their {@link JSONPathFilter} are compiled once per
+ * distinct string instead. The returned lists are shared and can't be modified.</p>
+ */
+final class JSONPatternCache {
+    private static final Log log = LogFactory.getLog(JSONPatternCache.class);
+
+    /**
+     * Maximum number of distinct parameter strings, and of compiled filters, kept in memory
+     */
+    static final int MAX_ENTRIES = 256;
+
+    private static final Map<String, List<Pattern>> patterns = new LRUMap<String, List<Pattern>>();
+    private static final Map<FilterKey, FilterHolder> filters = new LRUMap<FilterKey, FilterHolder>();
+
+    private JSONPatternCache() {
+    }
+
+    /**
+     * @param commaDelim comma-delimited list of regular expressions
+     * @return the compiled expressions, or null if the list is empty
+     */
+    public static List<Pattern> getPatterns(String commaDelim) {
+        return get(commaDelim, false);
+    }
+
+    /**
+     * Like {@link #getPatterns(String)}, also adds a pattern for each level of the object
+     * hierarchy named in the expressions so that the parents of the included properties are
+     * included too: "a\.b\[\d+\]\.c" adds "a", "a\.b" and "a\.b\[\d+\]".
+     *
+     * @param commaDelim comma-delimited list of regular expressions
+     * @return the compiled expressions, or null if the list is empty
+     */
+    public static List<Pattern> getIncludePatterns(String commaDelim) {
+        return get(commaDelim, true);
+    }
+
+    /**
+     * @param excludeProperties patterns returned by this cache, or null
+     * @param includeProperties patterns returned by this cache, or null
+     * @return the compiled filter, or null if the patterns can't be compiled into one
+     */
+    public static JSONPathFilter getPathFilter(List<Pattern> excludeProperties, List<Pattern> includeProperties) {
+        FilterKey key = new FilterKey(excludeProperties, includeProperties);
+        FilterHolder holder;
+        synchronized (filters) {
+            holder = filters.get(key);
+        }
+        if (holder == null) {
+            holder = new FilterHolder(JSONPathFilter.compile(excludeProperties, includeProperties));
+            synchronized (filters) {
+                filters.put(key, holder);
+            }
+        }
+        return holder.filter;
+    }
+
+    private static List<Pattern> get(String commaDelim, boolean expandLevels) {
+        if (commaDelim == null)
+            return null;
+        //the two kinds of lists can't share a key
+        String key = (expandLevels ? "+" : "-") + commaDelim;
+        List<Pattern> list;
+        synchronized (patterns) {
+            list = patterns.get(key);
+        }
+        if (list == null) {
+            List<String> expressions = JSONUtil.asList(commaDelim);
+            if (expressions == null)
+                return null;
+            list = Collections.unmodifiableList(expandLevels ? compileLevels(expressions) : compile(expressions));
+            synchronized (patterns) {
+                List<Pattern> existing = patterns.get(key);
+                if (existing != null)
+                    list = existing;
+                else
+                    patterns.put(key, list);
+            }
+        }
+        return list;
+    }
+
+    private static List<Pattern> compile(List<String> expressions) {
+        List<Pattern> list = new ArrayList<Pattern>(expressions.size());
+        for (String pattern : expressions) {
+            list.add(Pattern.compile(pattern));
+        }
+        return list;
+    }
+
+    private static List<Pattern> compileLevels(List<String> expressions) {
+        List<Pattern> list = new ArrayList<Pattern>(expressions.size());
+
+        Map<String, String> existingPatterns = new HashMap<String, String>();
+
+        for (String pattern : expressions) {
+            // Compile a pattern for each *unique* "level" of the object
+            // hierarchy specified in the regex.
+            String[] patternPieces = pattern.split("\\\\\\.");
+
+            String patternExpr = "";
+            for (String patternPiece : patternPieces) {
+                if (patternExpr.length() > 0) {
+                    patternExpr += "\\.";
+                }
+                patternExpr += patternPiece;
+
+                // Check for duplicate patterns so that there is no overlap.
+                if (!existingPatterns.containsKey(patternExpr)) {
+                    existingPatterns.put(patternExpr, patternExpr);
+
+                    // Add a pattern that does not have the indexed property matching (ie. list\[\d+\] becomes list).
+                    if (patternPiece.endsWith("\\]")) {
+                        list.add(Pattern.compile(patternExpr.substring(0, patternPiece.lastIndexOf("\\["))));
+
+                        if (log.isDebugEnabled())
+                            log.debug("Adding include property expression:  " + patternExpr.substring(0, patternPiece.lastIndexOf("\\[")));
+                    }
+
+                    list.add(Pattern.compile(patternExpr));
+
+                    if (log.isDebugEnabled())
+                        log.debug("Adding include property expression:  " + patternExpr);
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Least recently used entries are evicted past MAX_ENTRIES, callers synchronize on the map
+     */
+    private static class LRUMap<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        LRUMap() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    }
+
+    /**
+     * The lists come from this cache, so they are compared by identity
+     */
+    private static final class FilterKey {
+        private final List<Pattern> excludeProperties;
+        private final List<Pattern> includeProperties;
+
+        FilterKey(List<Pattern> excludeProperties, List<Pattern> includeProperties) {
+            this.excludeProperties = excludeProperties;
+            this.includeProperties = includeProperties;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(excludeProperties) + System.identityHashCode(includeProperties);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof FilterKey))
+                return false;
+            FilterKey other = (FilterKey) obj;
+            return (excludeProperties == other.excludeProperties) && (includeProperties == other.includeProperties);
+        }
+    }
+
+    /**
+     * Also caches the patterns that can't be compiled into a filter
+     */
+    private static final class FilterHolder {
+        private final JSONPathFilter filter;
+
+        FilterHolder(JSONPathFilter filter) {
+            this.filter = filter;
+        }
+    }
+}
@@ -14,10 +14,9 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
@@ -128,7 +127,8 @@ public class JSONPopulator {
 
     private static boolean isJSONPrimitive(Class clazz) {
         return clazz.isPrimitive() || clazz.equals(String.class) ||
-                clazz.equals(Date.class) || clazz.equals(Boolean.class) ||
+                clazz.equals(Date.class) || clazz.equals(Calendar.class) ||
+                JSONDateFormat.isTemporal(clazz) || clazz.equals(Boolean.class) ||
                 clazz.equals(Byte.class) || clazz.equals(Character.class) ||
                 clazz.equals(Double.class) || clazz.equals(Float.class) ||
                 clazz.equals(Integer.class) || clazz.equals(Long.class) ||
@@ -368,14 +368,20 @@ public class JSONPopulator {
                 return new Double(number.doubleValue());
             else if (String.class.equals(clazz))
                 return value.toString();
-        } else if (clazz.equals(Date.class)) {
+        } else if (clazz.equals(Date.class) || clazz.equals(Calendar.class)) {
             try {
                 JSON json = method.getAnnotation(JSON.class);
 
-                DateFormat formatter = new SimpleDateFormat(
+                JSONDateFormat formatter = JSONDateFormat.getInstance(
                         (json != null) && (json.format().length() > 0) ?
                                 json.format() : this.dateFormat);
-                return formatter.parse((String) value);
+                Date date = formatter.parse((String) value);
+                if (clazz.equals(Calendar.class)) {
+                    Calendar calendar = Calendar.getInstance();
+                    calendar.setTime(date);
+                    return calendar;
+                }
+                return date;
             } catch (ParseException e) {
                 log.error(e.getMessage(), e);
                 throw new JSONException("Unable to parse date from: " + value);
@@ -383,6 +389,11 @@ public class JSONPopulator {
         } else if (clazz.isEnum()) {
             String sValue = (String) value;
             return Enum.valueOf(clazz, sValue);
+        } else if (JSONDateFormat.isTemporal(clazz)) {
+            //java.time, ISO-8601 unless a format is given
+            JSON json = method.getAnnotation(JSON.class);
+            return JSONDateFormat.parseTemporal(clazz, value.toString(),
+                    (json != null) && (json.format().length() > 0) ? json.format() : null);
         } else if (value instanceof String) {
             String sValue = (String) value;
             if (Boolean.TYPE.equals(clazz))
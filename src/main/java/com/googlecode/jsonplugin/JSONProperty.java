@@ -0,0 +1,178 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.googlecode.jsonplugin;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.googlecode.jsonplugin.annotations.JSON;
+
+/**
+ * <p>Resolved serialization metadata of a single bean property. Instances are immutable and
+ * shared between threads through {@link JSONBeanInfo}.</p>
+ */
+final class JSONProperty {
+    private static final Log log = LogFactory.getLog(JSONProperty.class);
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private final String name;
+    private final Method accessor;
+    private final Method baseAccessor;
+    private final Field field;
+    private final boolean serialize;
+    private final String format;
+    private final boolean cache;
+    private final JSONDateFormat dateFormat;
+    private final char[] nameToken;
+    private final byte[] nameBytes;
+
+    JSONProperty(String name, Method accessor, Method baseAccessor) {
+        this(name, accessor, baseAccessor, null, baseAccessor.getAnnotation(JSON.class));
+    }
+
+    /**
+     * @param field field read directly, without a getter
+     */
+    JSONProperty(Field field) {
+        this(field.getName(), null, null, field, field.getAnnotation(JSON.class));
+    }
+
+    private JSONProperty(String name, Method accessor, Method baseAccessor, Field field, JSON json) {
+        if ((json != null) && (json.name().length() > 0))
+            name = json.name();
+
+        this.name = name;
+        this.accessor = accessor;
+        this.baseAccessor = baseAccessor;
+        this.field = field;
+        this.serialize = (json == null) || json.serialize();
+        this.cache = (json != null) && json.cache();
+        this.format = (json != null) && (json.format().length() > 0) ? json.format() : null;
+        this.dateFormat = (this.format != null) ? JSONDateFormat.getInstance(this.format) : null;
+
+        String token = "," + JSONWriter.quote(name) + ":";
+        this.nameToken = token.toCharArray();
+        try {
+            this.nameBytes = token.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            //every JVM supports UTF-8
+            throw new IllegalStateException(e.getMessage());
+        }
+
+        //skip the access checks on every invocation, also allows public getters of non public classes
+        AccessibleObject member = (field != null) ? field : accessor;
+        try {
+            member.setAccessible(true);
+        } catch (RuntimeException e) {
+            //SecurityException, or a module boundary on newer JVMs
+            log.debug("Access checks can't be suppressed on " + member, e);
+        }
+    }
+
+    /**
+     * Reads the value of the property. The JVM compiles frequently used accessors into bytecode,
+     * so the remaining cost of reflection is avoided by reusing the argument array and skipping
+     * the access checks.
+     *
+     * @param object bean to read the property from
+     * @return value of the property
+     */
+    public Object getValue(Object object) throws IllegalAccessException, InvocationTargetException {
+        if (this.field != null)
+            return this.field.get(object);
+        return this.accessor.invoke(object, NO_ARGS);
+    }
+
+    /**
+     * @return name of the property in the JSON output, @JSON(name=...) if present
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return read method to invoke on the serialized object, null if the property is a field
+     */
+    public Method getAccessor() {
+        return accessor;
+    }
+
+    /**
+     * @return read method carrying the annotations, differs from the accessor on CGLIB proxies
+     */
+    public Method getBaseAccessor() {
+        return baseAccessor;
+    }
+
+    /**
+     * @return field read instead of a getter, or null
+     */
+    public Field getField() {
+        return field;
+    }
+
+    /**
+     * @return the key of the property as written in the output, including the separator in
+     *         front of it and the colon after it: ,"name": The array must not be modified.
+     */
+    public char[] getNameToken() {
+        return nameToken;
+    }
+
+    /**
+     * @return the name token encoded in UTF-8, the array must not be modified
+     */
+    public byte[] getNameBytes() {
+        return nameBytes;
+    }
+
+    public boolean isSerialize() {
+        return serialize;
+    }
+
+    /**
+     * @return true if the text of the value is kept in the {@link JSONFragmentCache}
+     */
+    public boolean isCache() {
+        return cache;
+    }
+
+    /**
+     * @return date format from @JSON(format=...), or null to use the default
+     */
+    public String getFormat() {
+        return format;
+    }
+
+    /**
+     * @return shared date format for @JSON(format=...), or null to use the default
+     */
+    public JSONDateFormat getDateFormat() {
+        return dateFormat;
+    }
+}
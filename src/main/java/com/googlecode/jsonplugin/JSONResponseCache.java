@@ -0,0 +1,294 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.googlecode.jsonplugin;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.Deflater;
+
+/**
+ * <p>Process wide cache of encoded JSON responses, used by {@link JSONResult} when a cache timeout
+ * is set. Each response is kept for the timeout given when it was created, the least recently
+ * used responses are evicted past a number of entries or of cached bytes. The bytes count the
+ * compressed bodies kept with a response as well.</p>
+ * <p/>
+ * <p>Concurrent requests for a response that is not cached wait for the first one to create it,
+ * instead of serializing the same response in parallel.</p>
+ */
+public final class JSONResponseCache {
+    static final int DEFAULT_MAX_ENTRIES = 1024;
+    static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+
+    private static final JSONResponseCache defaultCache = new JSONResponseCache(DEFAULT_MAX_ENTRIES,
+            DEFAULT_MAX_BYTES);
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<Object, Slot> slots = new LinkedHashMap<Object, Slot>(16, 0.75f, true);
+    private long bytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxEntries maximum number of responses
+     * @param maxBytes   maximum number of bytes held by the responses
+     */
+    public JSONResponseCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the cache used by the results
+     */
+    public static JSONResponseCache getDefault() {
+        return defaultCache;
+    }
+
+    /**
+     * Returns the cached response, or creates it with the loader. Only one thread runs the loader
+     * of a key at a time, the other ones wait for its result.
+     *
+     * @param key        identifies the response, compared with equals()
+     * @param timeToLive milliseconds the response stays valid
+     * @param loader     creates the encoded response body
+     * @return the cached response
+     * @throws Exception the exception thrown by the loader
+     */
+    public Entry get(Object key, long timeToLive, Callable<byte[]> loader) throws Exception {
+        Slot slot;
+        boolean owner = false;
+        synchronized (this.slots) {
+            slot = this.slots.get(key);
+            if ((slot == null) || slot.isExpired(System.currentTimeMillis())) {
+                if (slot != null)
+                    this.remove(key);
+                slot = new Slot(this, key, loader, System.currentTimeMillis() + timeToLive);
+                this.slots.put(key, slot);
+                owner = true;
+            }
+        }
+
+        if (owner) {
+            this.misses.incrementAndGet();
+            slot.task.run();
+        } else {
+            this.hits.incrementAndGet();
+        }
+
+        try {
+            Entry entry = slot.task.get();
+            if (owner)
+                this.added(key, slot, entry);
+            return entry;
+        } catch (ExecutionException e) {
+            //don't cache failures
+            synchronized (this.slots) {
+                if (this.slots.get(key) == slot)
+                    this.slots.remove(key);
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception)
+                throw (Exception) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw e;
+        }
+    }
+
+    /**
+     * Counts the size of a created response and evicts the oldest ones past the limits
+     */
+    private void added(Object key, Slot slot, Entry entry) {
+        synchronized (this.slots) {
+            if (this.slots.get(key) != slot)
+                return;
+            slot.entry = entry;
+            slot.size = entry.size;
+            this.bytes += slot.size;
+            this.evict();
+        }
+    }
+
+    /**
+     * Counts a compressed body kept with a response and evicts the oldest ones past the limits
+     */
+    private void grown(Object key, Entry entry, int size) {
+        synchronized (this.slots) {
+            entry.size += size;
+            Slot slot = this.slots.get(key);
+            if ((slot == null) || (slot.entry != entry))
+                return;
+            slot.size += size;
+            this.bytes += size;
+            this.evict();
+        }
+    }
+
+    private void evict() {
+        Iterator<Slot> it = this.slots.values().iterator();
+        while (it.hasNext() && ((this.slots.size() > this.maxEntries) || (this.bytes > this.maxBytes))) {
+            this.bytes -= it.next().size;
+            it.remove();
+        }
+    }
+
+    private void remove(Object key) {
+        Slot slot = this.slots.remove(key);
+        if (slot != null)
+            this.bytes -= slot.size;
+    }
+
+    /**
+     * @return number of requests served from the cache, or waiting for another request
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * @return number of responses created
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * @return number of bytes held by the cached responses
+     */
+    long getBytes() {
+        synchronized (this.slots) {
+            return this.bytes;
+        }
+    }
+
+    /**
+     * @return number of cached responses, including the ones being created
+     */
+    public int size() {
+        synchronized (this.slots) {
+            return this.slots.size();
+        }
+    }
+
+    /**
+     * Evicts every response, the counters are kept
+     */
+    public void clear() {
+        synchronized (this.slots) {
+            this.slots.clear();
+            this.bytes = 0;
+        }
+    }
+
+    private static final class Slot {
+        final FutureTask<Entry> task;
+        final long expires;
+        Entry entry;
+        long size;
+
+        Slot(final JSONResponseCache cache, final Object key, final Callable<byte[]> loader, long expires) {
+            this.task = new FutureTask<Entry>(new Callable<Entry>() {
+                public Entry call() throws Exception {
+                    return new Entry(cache, key, loader.call());
+                }
+            });
+            this.expires = expires;
+        }
+
+        /**
+         * A response being created is never expired, so waiting requests share it
+         */
+        boolean isExpired(long now) {
+            return this.task.isDone() && (now >= this.expires);
+        }
+    }
+
+    /**
+     * Encoded response body with its entity tag
+     */
+    public static final class Entry {
+        private final byte[] body;
+        private final byte[] digest;
+        /**
+         * Compressed bodies by deflate level, the default level first
+         */
+        private final AtomicReferenceArray<byte[]> gzippedBodies = new AtomicReferenceArray<byte[]>(11);
+        private final JSONResponseCache cache;
+        private final Object key;
+        /**
+         * Bytes of the body and of the compressed bodies, guarded by the slots of the cache
+         */
+        private long size;
+
+        Entry(JSONResponseCache cache, Object key, byte[] body) {
+            this.cache = cache;
+            this.key = key;
+            this.body = body;
+            this.size = body.length;
+            this.digest = JSONUtil.createDigest().digest(body);
+        }
+
+        /**
+         * @return the response body, the array must not be modified
+         */
+        public byte[] getBody() {
+            return this.body;
+        }
+
+        /**
+         * @return the response body compressed with GZIP, compressed once on first use
+         */
+        public byte[] getGzippedBody() throws IOException {
+            return getGzippedBody(Deflater.DEFAULT_COMPRESSION);
+        }
+
+        /**
+         * @param level deflate level from 0 to 9, or -1 for the default level
+         * @return the response body compressed with GZIP at the level, compressed once on first use
+         */
+        public byte[] getGzippedBody(int level) throws IOException {
+            byte[] gzipped = this.gzippedBodies.get(level + 1);
+            if (gzipped == null) {
+                gzipped = JSONUtil.gzip(this.body, level);
+                if (this.gzippedBodies.compareAndSet(level + 1, null, gzipped))
+                    this.cache.grown(this.key, this, gzipped.length);
+                else
+                    gzipped = this.gzippedBodies.get(level + 1);
+            }
+            return gzipped;
+        }
+
+        /**
+         * @param gzip true for the compressed body
+         * @return quoted entity tag of the body, the compressed one has its own tag
+         */
+        public String getETag(boolean gzip) {
+            return JSONUtil.getETag(this.digest, gzip);
+        }
+    }
+}
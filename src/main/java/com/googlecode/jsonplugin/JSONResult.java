@@ -5,7 +5,10 @@ import com.googlecode.jsonplugin.annotations.SMDMethod;
 import com.googlecode.jsonplugin.annotations.SMDMethodParameter;
 import com.opensymphony.xwork2.ActionContext;
 import com.opensymphony.xwork2.ActionInvocation;
+import com.opensymphony.xwork2.ActionProxy;
 import com.opensymphony.xwork2.Result;
+import com.opensymphony.xwork2.config.entities.ActionConfig;
+import com.opensymphony.xwork2.inject.Container;
 import com.opensymphony.xwork2.inject.Inject;
 import com.opensymphony.xwork2.util.ValueStack;
 import org.apache.commons.logging.Log;
@@ -16,12 +19,18 @@ import org.apache.struts2.StrutsStatics;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.Writer;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
+import java.security.MessageDigest;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 
 /**
  * <!-- START SNIPPET: description -->
@@ -53,6 +62,7 @@ public class JSONResult implements Result {
     private static final long serialVersionUID = 8624350183189931165L;
     private static final Log log = LogFactory.getLog(JSONResult.class);
     private String defaultEncoding = "ISO-8859-1";
+    private transient TypeSerializerRegistry serializers;
     private List<Pattern> includeProperties;
     private List<Pattern> excludeProperties;
     private String root;
@@ -71,12 +81,41 @@ public class JSONResult implements Result {
     private String contentType;
     private String wrapPrefix;
     private String wrapSuffix;
+    private boolean streaming = false;
+    private boolean assumeAcyclic = false;
+    private boolean fieldAccess = false;
+    private int flushInterval;
+    private int flushSize;
+    private int cacheTimeout;
+    private List<String> cacheKeyParameters;
+    private boolean enableETag = false;
+    private boolean sortMapKeys = false;
+    private String versionExpression;
+    private int gzipLevel = Deflater.DEFAULT_COMPRESSION;
+    private int gzipBufferSize = SerializationParams.DEFAULT_GZIP_BUFFER_SIZE;
+    private int gzipMinSize = SerializationParams.DEFAULT_GZIP_MIN_SIZE;
+    private int gzipParallelMinSize = SerializationParams.DEFAULT_GZIP_PARALLEL_MIN_SIZE;
+    private String compressionPolicy;
+    private transient Container container;
 
     @Inject(StrutsConstants.STRUTS_I18N_ENCODING)
     public void setDefaultEncoding(String val) {
         this.defaultEncoding = val;
     }
 
+    @Inject
+    public void setContainer(Container container) {
+        this.container = container;
+    }
+
+    /**
+     * @param serializers the serializers declared in the Struts configuration
+     */
+    @Inject(required = false)
+    public void setSerializers(TypeSerializerRegistry serializers) {
+        this.serializers = serializers;
+    }
+
     /**
      * Gets a list of regular expressions of properties to exclude
      * from the JSON output.
@@ -84,7 +123,8 @@ public class JSONResult implements Result {
      * @return A list of compiled regular expression patterns
      */
     public List<Pattern> getExcludePropertiesList() {
-        return this.excludeProperties;
+        //the compiled patterns are shared with the other results
+        return (this.excludeProperties != null) ? new ArrayList<Pattern>(this.excludeProperties) : null;
     }
 
     /**
@@ -94,12 +134,9 @@ public class JSONResult implements Result {
      * @param commaDelim A comma-delimited list of regular expressions
      */
     public void setExcludeProperties(String commaDelim) {
-        List<String> excludePatterns = JSONUtil.asList(commaDelim);
+        List<Pattern> excludePatterns = JSONPatternCache.getPatterns(commaDelim);
         if (excludePatterns != null) {
-            this.excludeProperties = new ArrayList<Pattern>(excludePatterns.size());
-            for (String pattern : excludePatterns) {
-                this.excludeProperties.add(Pattern.compile(pattern));
-            }
+            this.excludeProperties = excludePatterns;
         }
     }
 
@@ -107,50 +144,16 @@ public class JSONResult implements Result {
      * @return the includeProperties
      */
     public List<Pattern> getIncludePropertiesList() {
-        return includeProperties;
+        return (includeProperties != null) ? new ArrayList<Pattern>(includeProperties) : null;
     }
 
     /**
      * @param includedProperties the includeProperties to set
      */
     public void setIncludeProperties(String commaDelim) {
-        List<String> includePatterns = JSONUtil.asList(commaDelim);
+        List<Pattern> includePatterns = JSONPatternCache.getIncludePatterns(commaDelim);
         if (includePatterns != null) {
-            this.includeProperties = new ArrayList<Pattern>(includePatterns.size());
-
-            HashMap existingPatterns = new HashMap();
-
-            for (String pattern : includePatterns) {
-                // Compile a pattern for each *unique* "level" of the object
-                // hierarchy specified in the regex.
-                String[] patternPieces = pattern.split("\\\\\\.");
-
-                String patternExpr = "";
-                for (String patternPiece : patternPieces) {
-                    if (patternExpr.length() > 0) {
-                        patternExpr += "\\.";
-                    }
-                    patternExpr += patternPiece;
-
-                    // Check for duplicate patterns so that there is no overlap.
-                    if (!existingPatterns.containsKey(patternExpr)) {
-                        existingPatterns.put(patternExpr, patternExpr);
-
-                        // Add a pattern that does not have the indexed property matching (ie. list\[\d+\] becomes list).
-                        if (patternPiece.endsWith("\\]")) {
-                            this.includeProperties.add(Pattern.compile(patternExpr.substring(0, patternPiece.lastIndexOf("\\["))));
-
-                            if (log.isDebugEnabled())
-                                log.debug("Adding include property expression:  " + patternExpr.substring(0, patternPiece.lastIndexOf("\\[")));
-                        }
-
-                        this.includeProperties.add(Pattern.compile(patternExpr));
-
-                        if (log.isDebugEnabled())
-                            log.debug("Adding include property expression:  " + patternExpr);
-                    }
-                }
-            }
+            this.includeProperties = includePatterns;
         }
     }
 
@@ -163,25 +166,50 @@ public class JSONResult implements Result {
 
         try {
             String json;
-            Object rootObject;
-            if (this.enableSMD) {
-                //generate SMD
-                rootObject = this.writeSMD(invocation);
-            } else {
-                // generate JSON
-                if (this.root != null) {
-                    ValueStack stack = invocation.getStack();
-                    rootObject = stack.findValue(this.root);
-                } else {
-                    rootObject = invocation.getAction();
+            boolean writeGzip = enableGZIP && JSONUtil.isGzipInRequest(request);
+
+            boolean cached = (this.cacheTimeout > 0) && (this.errorCode <= 0);
+            boolean versioned = !this.enableSMD && isTaggable();
+
+            //the root is looked up once, the response cache looks it up only when the cached
+            //response expired unless the version is read from it
+            Object rootObject = null;
+            if (!cached || (versioned && (this.versionExpression == null)))
+                rootObject = findRootObject(invocation);
+
+            //the version of the root replaces the entity tag of the body
+            boolean tagBody = enableETag;
+            Object version = null;
+            if (versioned) {
+                version = findVersion(invocation, rootObject);
+                if (version != null) {
+                    if (writeVersion(request, response, rootObject, version))
+                        return;
+                    tagBody = false;
                 }
             }
-            json = JSONUtil.serialize(rootObject, excludeProperties, includeProperties, ignoreHierarchy, enumAsBean, excludeNullProperties);
-            json = addCallbackIfApplicable(request, json);
 
-            boolean writeGzip = enableGZIP && JSONUtil.isGzipInRequest(request);
+            if (cached) {
+                cachedToResponse(invocation, request, response, rootObject, version, writeGzip, tagBody);
+                return;
+            }
+
+            if (this.streaming) {
+                streamToResponse(request, response, rootObject, writeGzip, tagBody);
+            } else {
+                JSONWriter writer = createJSONWriter();
+                try {
+                    json = writer.write(rootObject, excludeProperties, includeProperties, excludeNullProperties);
+                } finally {
+                    writer.release();
+                }
+                json = addCallbackIfApplicable(request, json);
 
-            writeToResponse(response, json, writeGzip);
+                if (tagBody && isTaggable())
+                    writeTaggedResponse(request, response, json, writeGzip);
+                else
+                    writeToResponse(response, json, writeGzip);
+            }
 
         } catch (IOException exception) {
             log.error(exception.getMessage(), exception);
@@ -189,11 +217,304 @@ public class JSONResult implements Result {
         }
     }
 
+    private Object findRootObject(ActionInvocation invocation) {
+        if (this.enableSMD) {
+            //generate SMD
+            return this.writeSMD(invocation);
+        } else {
+            // generate JSON
+            if (this.root != null) {
+                ValueStack stack = invocation.getStack();
+                return stack.findValue(this.root);
+            } else {
+                return invocation.getAction();
+            }
+        }
+    }
+
+    /**
+     * @return the version from versionExpression or from the root object, null if unknown
+     */
+    private Object findVersion(ActionInvocation invocation, Object rootObject) {
+        if (this.versionExpression != null)
+            return invocation.getStack().findValue(this.versionExpression);
+
+        return (rootObject instanceof Versioned) ? ((Versioned) rootObject).getVersion() : null;
+    }
+
+    /**
+     * Sets the entity tag derived from the version and the settings of this result, and
+     * Last-Modified when the version is a date. The root object is not serialized when the
+     * request holds the tag, or the date in If-Modified-Since without If-None-Match. The tag is
+     * weak, whether the body gets compressed is only known once it is serialized.
+     *
+     * @return true if 304 Not Modified was answered
+     */
+    private boolean writeVersion(HttpServletRequest request, HttpServletResponse response, Object rootObject,
+                                 Object version) throws IOException {
+        long lastModified = -1;
+        if (version instanceof Date)
+            lastModified = ((Date) version).getTime();
+        else if (version instanceof Calendar)
+            lastModified = ((Calendar) version).getTimeInMillis();
+
+        String source = (this.versionExpression != null) ? this.versionExpression : rootObject.getClass()
+                .getName();
+        String text = source + ":" + ((lastModified >= 0) ? String.valueOf(lastModified) : version) + "|"
+                + getSettings(getCallbackName(request));
+        String etag = "W/" + JSONUtil.getETag(JSONUtil.createDigest().digest(text.getBytes("UTF-8")), false);
+
+        boolean notModified;
+        if (request.getHeader("If-None-Match") != null) {
+            notModified = JSONUtil.isNotModified(request, etag);
+        } else {
+            long since = -1;
+            try {
+                since = request.getDateHeader("If-Modified-Since");
+            } catch (IllegalArgumentException e) {
+                //not a date, ignored
+            }
+            notModified = (lastModified >= 0) && (since >= 0) && (lastModified / 1000 <= since / 1000);
+        }
+
+        if (lastModified >= 0)
+            response.setDateHeader("Last-Modified", lastModified);
+        if (notModified) {
+            writeNotModified(response, etag);
+            return true;
+        }
+        response.setHeader("ETag", etag);
+        return false;
+    }
+
+    /**
+     * Writes the response from the response cache, serializing the root object only when the
+     * cached response expired. Answers 304 Not Modified when the client has the current response.
+     */
+    protected void cachedToResponse(final ActionInvocation invocation, final HttpServletRequest request,
+                                    HttpServletResponse response, boolean gzip) throws Exception {
+        cachedToResponse(invocation, request, response, null, null, gzip, true);
+    }
+
+    /**
+     * @param rootObject the root object when it was already looked up, or null
+     * @param version    the version of the root object, part of the cache key, or null
+     */
+    private void cachedToResponse(final ActionInvocation invocation, final HttpServletRequest request,
+                                  HttpServletResponse response, final Object rootObject, Object version,
+                                  boolean gzip, boolean tagBody) throws Exception {
+        final String callbackName = getCallbackName(request);
+        SerializationParams serializationParams = createSerializationParams(response, null, gzip);
+
+        JSONResponseCache.Entry entry = JSONResponseCache.getDefault().get(
+                createCacheKey(invocation, request, callbackName, version), cacheTimeout * 1000L, new Callable<byte[]>() {
+                    public byte[] call() throws Exception {
+                        String json;
+                        JSONWriter writer = createJSONWriter();
+                        try {
+                            json = writer.write((rootObject != null) ? rootObject : findRootObject(invocation),
+                                    excludeProperties, includeProperties, excludeNullProperties);
+                        } finally {
+                            writer.release();
+                        }
+                        if (callbackName != null)
+                            json = callbackName + "(" + json + ")";
+                        return JSONUtil.getResponseBody(new SerializationParams(null, getEncoding(),
+                                isWrapWithComments(), json, false, false, noCache, statusCode, errorCode, prefix,
+                                contentType, wrapPrefix, wrapSuffix));
+                    }
+                });
+
+        //cached bodies are compressed once per level
+        byte[] body = entry.getBody();
+        int level = JSONUtil.getGzipLevel(serializationParams, body.length);
+        boolean compressed = level != CompressionPolicy.NO_COMPRESSION;
+        String etag = tagBody ? entry.getETag(compressed) : null;
+        if ((etag != null) && isTaggable() && JSONUtil.isNotModified(request, etag)) {
+            writeNotModified(response, etag);
+            return;
+        }
+        if (compressed) {
+            body = entry.getGzippedBody(level);
+            JSONUtil.compressed(serializationParams, level, entry.getBody().length, body.length);
+        }
+        JSONUtil.writeJSONToResponse(serializationParams, body, compressed, etag);
+    }
+
+    /**
+     * Encodes the whole response before writing it, so the body is not sent when the client has
+     * the current response
+     */
+    protected void writeTaggedResponse(HttpServletRequest request, HttpServletResponse response, String json,
+                                       boolean gzip) throws IOException {
+        SerializationParams serializationParams = createSerializationParams(response, json, gzip);
+        byte[] body = JSONUtil.getResponseBody(serializationParams);
+        int level = JSONUtil.getGzipLevel(serializationParams, body.length);
+        boolean compressed = level != CompressionPolicy.NO_COMPRESSION;
+        String etag = JSONUtil.getETag(JSONUtil.createDigest().digest(body), compressed);
+        if (JSONUtil.isNotModified(request, etag))
+            writeNotModified(response, etag);
+        else
+            JSONUtil.writeJSONToResponse(serializationParams, compressed ? JSONUtil.gzip(body, serializationParams,
+                    level) : body, compressed, etag);
+    }
+
+    /**
+     * Only successful responses get an entity tag
+     */
+    private boolean isTaggable() {
+        return (errorCode <= 0) && ((statusCode <= 0) || (statusCode == HttpServletResponse.SC_OK));
+    }
+
+    private void writeNotModified(HttpServletResponse response, String etag) {
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        response.setHeader("ETag", etag);
+    }
+
+    /**
+     * The response depends on the action, the request parameters listed in cacheKeyParameters
+     * and on the settings of this result. A response cached for a version is not used for
+     * another one.
+     */
+    private Object createCacheKey(ActionInvocation invocation, HttpServletRequest request, String callbackName,
+                                  Object version) {
+        List<Object> key = new ArrayList<Object>();
+        key.add(invocation.getProxy().getNamespace());
+        key.add(invocation.getProxy().getActionName());
+        key.add(invocation.getProxy().getMethod());
+        key.add(invocation.getResultCode());
+        key.addAll(getSettings(callbackName));
+        key.add(version);
+        if (cacheKeyParameters != null) {
+            for (String name : cacheKeyParameters) {
+                String[] values = request.getParameterValues(name);
+                key.add((values != null) ? Arrays.asList(values) : null);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * @return the settings of this result changing the response
+     */
+    private List<Object> getSettings(String callbackName) {
+        List<Object> settings = new ArrayList<Object>();
+        settings.add(root);
+        settings.add(getExpressions(excludeProperties));
+        settings.add(getExpressions(includeProperties));
+        settings.add(Arrays.asList(enableSMD, ignoreHierarchy, ignoreInterfaces, enumAsBean, excludeNullProperties,
+                fieldAccess, sortMapKeys, wrapWithComments, prefix, statusCode));
+        settings.add(getEncoding());
+        settings.add(wrapPrefix);
+        settings.add(wrapSuffix);
+        settings.add(callbackName);
+        return settings;
+    }
+
+    /**
+     * Pattern doesn't implement equals(), the expressions are compared instead
+     */
+    private static List<String> getExpressions(List<Pattern> patterns) {
+        if (patterns == null)
+            return null;
+        List<String> expressions = new ArrayList<String>(patterns.size());
+        for (Pattern pattern : patterns)
+            expressions.add(pattern.pattern());
+        return expressions;
+    }
+
     protected void writeToResponse(HttpServletResponse response,
                                    String json, boolean gzip) throws IOException {
-        JSONUtil.writeJSONToResponse(
-                new SerializationParams(response, getEncoding(), isWrapWithComments(), json, false,
-                        gzip, noCache, statusCode, errorCode, prefix, contentType, wrapPrefix, wrapSuffix));
+        JSONUtil.writeJSONToResponse(createSerializationParams(response, json, gzip));
+    }
+
+    /**
+     * Serializes the root object straight into the response, the JSON text is never held in memory.
+     * With enableETag, the body is hashed while it is written. The entity tag is only sent, and
+     * 304 only answered, when the whole body fit in the buffer of the response, otherwise the
+     * response was committed before the tag was known.
+     */
+    protected void streamToResponse(HttpServletRequest request, HttpServletResponse response,
+                                    Object rootObject, boolean gzip) throws IOException, JSONException {
+        streamToResponse(request, response, rootObject, gzip, enableETag);
+    }
+
+    private void streamToResponse(HttpServletRequest request, HttpServletResponse response,
+                                  Object rootObject, boolean gzip, boolean tagBody) throws IOException, JSONException {
+        SerializationParams serializationParams = createSerializationParams(response, null, gzip);
+
+        MessageDigest digest = (tagBody && isTaggable()) ? JSONUtil.createDigest() : null;
+        Writer writer = JSONUtil.openJSONResponse(serializationParams, digest);
+        String callbackName = getCallbackName(request);
+        if (callbackName != null)
+            writer.write(callbackName + "(");
+        JSONWriter jsonWriter = createJSONWriter();
+        try {
+            jsonWriter.setFlushInterval(flushInterval);
+            jsonWriter.setFlushSize(flushSize);
+            jsonWriter.write(rootObject, writer, excludeProperties, includeProperties, excludeNullProperties);
+        } finally {
+            jsonWriter.release();
+        }
+        if (callbackName != null)
+            writer.write(")");
+        JSONUtil.closeJSONResponse(writer, serializationParams);
+
+        if (digest != null) {
+            //small bodies are not compressed
+            String etag = JSONUtil.getETag(digest.digest(), gzip && response.containsHeader("Content-Encoding"));
+            if (response.isCommitted()) {
+                if (log.isDebugEnabled())
+                    log.debug("The response was committed before its entity tag was computed");
+            } else if (JSONUtil.isNotModified(request, etag)) {
+                response.resetBuffer();
+                writeNotModified(response, etag);
+            } else {
+                response.setHeader("ETag", etag);
+            }
+        }
+    }
+
+    private SerializationParams createSerializationParams(HttpServletResponse response, String json,
+                                                          boolean gzip) {
+        SerializationParams serializationParams = new SerializationParams(response, getEncoding(),
+                isWrapWithComments(), json, false, gzip, noCache, statusCode, errorCode, prefix, contentType,
+                wrapPrefix, wrapSuffix);
+        serializationParams.setGzipLevel(gzipLevel);
+        serializationParams.setGzipBufferSize(gzipBufferSize);
+        serializationParams.setGzipMinSize(gzipMinSize);
+        serializationParams.setGzipParallelMinSize(gzipParallelMinSize);
+        if (gzip && (compressionPolicy != null) && (container != null)) {
+            ActionContext context = ActionContext.getContext();
+            ActionInvocation invocation = context.getActionInvocation();
+            String key = context.getName();
+            if ((invocation != null) && (invocation.getProxy() != null)) {
+                //the configured name, wildcard actions would add a key per URL
+                ActionProxy proxy = invocation.getProxy();
+                ActionConfig config = proxy.getConfig();
+                key = (config != null) ? config.getPackageName() + "/" + config.getName() : proxy.getNamespace()
+                        + "/" + proxy.getActionName();
+            }
+            serializationParams.setCompressionPolicy(container.getInstance(CompressionPolicy.class,
+                    compressionPolicy), key);
+        }
+        return serializationParams;
+    }
+
+    /**
+     * @return writer of the current thread, must be released after use
+     */
+    private JSONWriter createJSONWriter() {
+        JSONWriter writer = JSONWriter.acquire();
+        writer.setIgnoreHierarchy(ignoreHierarchy);
+        writer.setEnumAsBean(enumAsBean);
+        writer.setAssumeAcyclic(assumeAcyclic);
+        writer.setFieldAccess(fieldAccess);
+        writer.setSortMapKeys(sortMapKeys);
+        writer.setSerializers(serializers);
+        if ((excludeProperties != null) || (includeProperties != null))
+            writer.setPathFilter(JSONPatternCache.getPathFilter(excludeProperties, includeProperties));
+        return writer;
     }
 
     @SuppressWarnings("unchecked")
@@ -315,12 +636,22 @@ public class JSONResult implements Result {
 
     protected String addCallbackIfApplicable(HttpServletRequest request,
                                              String json) {
+        String callbackName = getCallbackName(request);
+        if (callbackName != null)
+            json = callbackName + "(" + json + ")";
+        return json;
+    }
+
+    /**
+     * @return JSONP callback requested through the callback parameter, or null
+     */
+    private String getCallbackName(HttpServletRequest request) {
         if (callbackParameter != null && callbackParameter.length() > 0) {
             String callbackName = request.getParameter(callbackParameter);
             if (callbackName != null && callbackName.length() > 0)
-                json = callbackName + "(" + json + ")";
+                return callbackName;
         }
-        return json;
+        return null;
     }
 
     /**
@@ -499,4 +830,215 @@ public class JSONResult implements Result {
     public void setWrapSuffix(String wrapSuffix) {
         this.wrapSuffix = wrapSuffix;
     }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Write the JSON text to the response while it is generated, instead of serializing it
+     * into memory first. Large responses then need a constant amount of memory, but no
+     * Content-Length is sent and an error in the middle of the serialization leaves a
+     * truncated response behind.
+     *
+     * @param streaming true to stream the output (default=false)
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public boolean isAssumeAcyclic() {
+        return assumeAcyclic;
+    }
+
+    /**
+     * Don't look for cyclic references while serializing. Only safe when the root object is
+     * known to be a tree, like a graph of DTOs: a cycle overflows the stack instead of being
+     * serialized as null.
+     *
+     * @param assumeAcyclic true to skip the detection of cyclic references (default=false)
+     */
+    public void setAssumeAcyclic(boolean assumeAcyclic) {
+        this.assumeAcyclic = assumeAcyclic;
+    }
+
+    public boolean isFieldAccess() {
+        return fieldAccess;
+    }
+
+    /**
+     * Serialize the beans from their fields instead of their getters, for DTOs with public or
+     * final fields. Static and transient fields are skipped, @JSON can be put on the fields.
+     *
+     * @param fieldAccess true to read the fields (default=false)
+     */
+    public void setFieldAccess(boolean fieldAccess) {
+        this.fieldAccess = fieldAccess;
+    }
+
+    public int getFlushInterval() {
+        return flushInterval;
+    }
+
+    /**
+     * Flush the response every flushInterval elements of the arrays, Iterables, Iterators and
+     * Enumerations, so the client receives a long export while it is generated. Only used when
+     * streaming.
+     *
+     * @param flushInterval number of elements between flushes, 0 to disable (default=0)
+     */
+    public void setFlushInterval(int flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    public int getFlushSize() {
+        return flushSize;
+    }
+
+    /**
+     * Flush the response, after an array element, once flushSize bytes were written since the
+     * previous flush. Only used when streaming.
+     *
+     * @param flushSize number of bytes between flushes, 0 to disable (default=0)
+     */
+    public void setFlushSize(int flushSize) {
+        this.flushSize = flushSize;
+    }
+
+    public int getCacheTimeout() {
+        return cacheTimeout;
+    }
+
+    /**
+     * Keep the encoded response in a process wide cache for the given number of seconds. Requests
+     * made meanwhile get the cached response, with an ETag, or 304 Not Modified when their
+     * If-None-Match header holds the ETag. Concurrent requests wait for a single serialization.
+     * The response must only depend on the action, on the request parameters listed in
+     * cacheKeyParameters and on the settings of this result.
+     *
+     * @param cacheTimeout seconds a response is cached, 0 to disable (default=0)
+     */
+    public void setCacheTimeout(int cacheTimeout) {
+        this.cacheTimeout = cacheTimeout;
+    }
+
+    /**
+     * @param commaDelim comma-delimited list of the request parameters the cached response
+     *                   depends on, like "page,sort"
+     */
+    public void setCacheKeyParameters(String commaDelim) {
+        this.cacheKeyParameters = JSONUtil.asList(commaDelim);
+    }
+
+    public boolean isEnableETag() {
+        return enableETag;
+    }
+
+    /**
+     * Sends an entity tag computed from the response body, and answers 304 Not Modified without
+     * a body when the If-None-Match header of the request holds the tag. The whole response is
+     * encoded before it is written, unless streaming is enabled. A streamed response only gets
+     * a tag when it fits in the buffer of the response, and flushInterval and flushSize then
+     * don't flush the response.
+     *
+     * @param enableETag true to tag the successful responses (default=false)
+     */
+    public void setEnableETag(boolean enableETag) {
+        this.enableETag = enableETag;
+    }
+
+    public boolean isSortMapKeys() {
+        return sortMapKeys;
+    }
+
+    /**
+     * Writes the entries of the maps ordered by their keys, so the entity tag doesn't change with
+     * the iteration order of the maps.
+     *
+     * @param sortMapKeys true to sort the keys of the maps (default=false)
+     */
+    public void setSortMapKeys(boolean sortMapKeys) {
+        this.sortMapKeys = sortMapKeys;
+    }
+
+    public String getVersionExpression() {
+        return versionExpression;
+    }
+
+    /**
+     * Answers 304 Not Modified without serializing anything when the version is the one the
+     * client has. The version is read from this OGNL expression, or from the root object when it
+     * implements {@link Versioned}. A date is also sent as Last-Modified and compared with
+     * If-Modified-Since. The entity tag combines the version with the settings of this result, like
+     * the include/exclude properties, so results configured differently have different tags.
+     *
+     * @param versionExpression OGNL expression of the version of the root object, or null
+     */
+    public void setVersionExpression(String versionExpression) {
+        this.versionExpression = versionExpression;
+    }
+
+    public int getGzipLevel() {
+        return gzipLevel;
+    }
+
+    /**
+     * @param gzipLevel deflate level of the compressed responses, from 1 (fastest) to 9 (smallest),
+     *                  or -1 for the default level of the JVM (default=-1)
+     */
+    public void setGzipLevel(int gzipLevel) {
+        this.gzipLevel = gzipLevel;
+    }
+
+    public int getGzipBufferSize() {
+        return gzipBufferSize;
+    }
+
+    /**
+     * @param gzipBufferSize size in bytes of the buffer of the compressor (default=8192)
+     */
+    public void setGzipBufferSize(int gzipBufferSize) {
+        this.gzipBufferSize = gzipBufferSize;
+    }
+
+    public int getGzipMinSize() {
+        return gzipMinSize;
+    }
+
+    /**
+     * @param gzipMinSize responses smaller than this number of bytes are sent uncompressed even
+     *                    when enableGZIP is set (default=1024)
+     */
+    public void setGzipMinSize(int gzipMinSize) {
+        this.gzipMinSize = gzipMinSize;
+    }
+
+    public int getGzipParallelMinSize() {
+        return gzipParallelMinSize;
+    }
+
+    /**
+     * Compresses the responses of at least this size on all the processors, in blocks of 128 KB.
+     * Requires Java 7 or later, streamed responses are always compressed on a single core.
+     *
+     * @param gzipParallelMinSize minimum size in bytes, 0 to disable (default=4194304)
+     */
+    public void setGzipParallelMinSize(int gzipParallelMinSize) {
+        this.gzipParallelMinSize = gzipParallelMinSize;
+    }
+
+    public String getCompressionPolicy() {
+        return compressionPolicy;
+    }
+
+    /**
+     * Lets a {@link CompressionPolicy} choose the deflate level of each response instead of
+     * gzipLevel, for instance "adaptive" for the {@link AdaptiveCompressionPolicy} declared by
+     * the plugin.
+     *
+     * @param compressionPolicy name of a CompressionPolicy bean, or null to use gzipLevel
+     */
+    public void setCompressionPolicy(String compressionPolicy) {
+        this.compressionPolicy = compressionPolicy;
+    }
 }
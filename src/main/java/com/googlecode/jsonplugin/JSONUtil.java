@@ -28,18 +28,23 @@ import org.apache.commons.logging.LogFactory;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
 import java.lang.reflect.Method;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
 
 /**
@@ -49,6 +54,17 @@ public class JSONUtil {
     final static String RFC3339_FORMAT = "yyyy-MM-dd'T'HH:mm:ss";
     private static final Log log = LogFactory.getLog(JSONUtil.class);
 
+    private static final int RESPONSE_BUFFER_SIZE = 8192;
+
+    /**
+     * Bigger response buffers are left to the garbage collector instead of being kept by the thread
+     */
+    private static final int MAX_RETAINED_RESPONSE_BUFFER_SIZE = 256 * 1024;
+
+    private static final ThreadLocal<byte[]> responseBuffer = new ThreadLocal<byte[]>();
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
     /**
      * Serializes an object into JSON.
      *
@@ -57,9 +73,12 @@ public class JSONUtil {
      * @throws JSONException
      */
     public static String serialize(Object object) throws JSONException {
-        JSONWriter writer = new JSONWriter();
-
-        return writer.write(object);
+        JSONWriter writer = JSONWriter.acquire();
+        try {
+            return writer.write(object);
+        } finally {
+            writer.release();
+        }
     }
 
     /**
@@ -74,9 +93,13 @@ public class JSONUtil {
      */
     public static String serialize(Object object, Collection<Pattern> excludeProperties, Collection<Pattern> includeProperties,
                                    boolean ignoreHierarchy, boolean excludeNullProperties) throws JSONException {
-        JSONWriter writer = new JSONWriter();
-        writer.setIgnoreHierarchy(ignoreHierarchy);
-        return writer.write(object, excludeProperties, includeProperties, excludeNullProperties);
+        JSONWriter writer = JSONWriter.acquire();
+        try {
+            writer.setIgnoreHierarchy(ignoreHierarchy);
+            return writer.write(object, excludeProperties, includeProperties, excludeNullProperties);
+        } finally {
+            writer.release();
+        }
     }
 
     /**
@@ -92,14 +115,19 @@ public class JSONUtil {
      */
     public static String serialize(Object object, Collection<Pattern> excludeProperties,
                                    Collection<Pattern> includeProperties, boolean ignoreHierarchy, boolean enumAsBean, boolean excludeNullProperties) throws JSONException {
-        JSONWriter writer = new JSONWriter();
-        writer.setIgnoreHierarchy(ignoreHierarchy);
-        writer.setEnumAsBean(enumAsBean);
-        return writer.write(object, excludeProperties, includeProperties, excludeNullProperties);
+        JSONWriter writer = JSONWriter.acquire();
+        try {
+            writer.setIgnoreHierarchy(ignoreHierarchy);
+            writer.setEnumAsBean(enumAsBean);
+            return writer.write(object, excludeProperties, includeProperties, excludeNullProperties);
+        } finally {
+            writer.release();
+        }
     }
 
     /**
-     * Serializes an object into JSON to the given writer.
+     * Serializes an object into JSON to the given writer. The JSON text is streamed to the writer
+     * while it is generated, the writer is not flushed.
      *
      * @param writer Writer to serialize the object to
      * @param object object to be serialized
@@ -108,7 +136,12 @@ public class JSONUtil {
      */
     public static void serialize(Writer writer, Object object) throws IOException,
             JSONException {
-        writer.write(serialize(object));
+        JSONWriter jsonWriter = JSONWriter.acquire();
+        try {
+            jsonWriter.write(object, writer, null, null, false);
+        } finally {
+            jsonWriter.release();
+        }
     }
 
     /**
@@ -123,7 +156,32 @@ public class JSONUtil {
      */
     public static void serialize(Writer writer, Object object,
                                  Collection<Pattern> excludeProperties, Collection<Pattern> includeProperties, boolean excludeNullProperties) throws IOException, JSONException {
-        writer.write(serialize(object, excludeProperties, includeProperties, true, excludeNullProperties));
+        serialize(writer, object, excludeProperties, includeProperties, true, false, excludeNullProperties);
+    }
+
+    /**
+     * Serializes an object into JSON to the given writer, excluding any properties matching
+     * any of the regular expressions in the given collection.
+     *
+     * @param writer            Writer to serialize the object to
+     * @param object            object to be serialized
+     * @param excludeProperties Patterns matching properties to exclude
+     * @param ignoreHierarchy   whether to ignore properties defined on base classes of the root object
+     * @param enumAsBean        whether to serialized enums a Bean or name=value pair
+     * @throws IOException
+     * @throws JSONException
+     */
+    public static void serialize(Writer writer, Object object, Collection<Pattern> excludeProperties,
+                                 Collection<Pattern> includeProperties, boolean ignoreHierarchy, boolean enumAsBean,
+                                 boolean excludeNullProperties) throws IOException, JSONException {
+        JSONWriter jsonWriter = JSONWriter.acquire();
+        try {
+            jsonWriter.setIgnoreHierarchy(ignoreHierarchy);
+            jsonWriter.setEnumAsBean(enumAsBean);
+            jsonWriter.write(object, writer, excludeProperties, includeProperties, excludeNullProperties);
+        } finally {
+            jsonWriter.release();
+        }
     }
 
     /**
@@ -163,27 +221,354 @@ public class JSONUtil {
     }
 
     public static void writeJSONToResponse(SerializationParams serializationParams) throws IOException {
-        StringBuilder stringBuilder = new StringBuilder();
-        if (TextUtils.stringSet(serializationParams.getSerializedJSON()))
-            stringBuilder.append(serializationParams.getSerializedJSON());
+        String prefix = getResponsePrefix(serializationParams);
+        String json = TextUtils.stringSet(serializationParams.getSerializedJSON()) ? serializationParams
+                .getSerializedJSON() : "";
+        String suffix = getResponseSuffix(serializationParams);
 
-        if (TextUtils.stringSet(serializationParams.getWrapPrefix()))
-            stringBuilder.insert(0, serializationParams.getWrapPrefix());
-        else if (serializationParams.isWrapWithComments()) {
-            stringBuilder.insert(0, "/* ");
-            stringBuilder.append(" */");
-        } else if (serializationParams.isPrefix())
-            stringBuilder.insert(0, "{}&& ");
+        if (log.isDebugEnabled()) {
+            log.debug("[JSON]" + prefix + json + suffix);
+        }
 
-        if (TextUtils.stringSet(serializationParams.getWrapSuffix()))
-            stringBuilder.append(serializationParams.getWrapSuffix());
+        writeResponseHeaders(serializationParams);
+
+        String encoding = serializationParams.getEncoding();
+        if (JSONByteOutput.isSupported(encoding)) {
+            //encode once, into a buffer reused by the thread
+            byte[] buf = responseBuffer.get();
+            responseBuffer.set(null);
+            JSONByteOutput out = new JSONByteOutput(encoding, buf != null ? buf : new byte[RESPONSE_BUFFER_SIZE]);
+            out.write(prefix);
+            out.write(json, 0, json.length());
+            out.write(suffix);
+            writeBody(serializationParams, out.getBuffer(), out.size());
+            if (out.getBuffer().length <= MAX_RETAINED_RESPONSE_BUFFER_SIZE)
+                responseBuffer.set(out.getBuffer());
+        } else {
+            byte[] bytes = (prefix + json + suffix).getBytes(encoding);
+            writeBody(serializationParams, bytes, bytes.length);
+        }
+    }
 
-        String json = stringBuilder.toString();
+    /**
+     * Writes the encoded body, compressed when GZIP is enabled and the body reaches the minimum size
+     */
+    private static void writeBody(SerializationParams serializationParams, byte[] body, int length)
+            throws IOException {
+        HttpServletResponse response = serializationParams.getResponse();
+        int level = getGzipLevel(serializationParams, length);
+        if (level != CompressionPolicy.NO_COMPRESSION) {
+            response.addHeader("Content-Encoding", "gzip");
+            writeGzip(response.getOutputStream(), serializationParams, body, length, level);
+        } else {
+            response.setContentLength(length);
+            response.getOutputStream().write(body, 0, length);
+        }
+    }
 
-        if (log.isDebugEnabled()) {
-            log.debug("[JSON]" + json);
+    /**
+     * Decides whether a body is compressed, asking the compression policy of the settings if any.
+     * Call it once per response, policies may count the calls.
+     *
+     * @param serializationParams response settings
+     * @param length              size of the encoded body, -1 if unknown
+     * @return the deflate level, or {@link CompressionPolicy#NO_COMPRESSION} to send the body as it is
+     */
+    public static int getGzipLevel(SerializationParams serializationParams, int length) {
+        if (!serializationParams.isGzip() || ((length >= 0) && (length < serializationParams.getGzipMinSize())))
+            return CompressionPolicy.NO_COMPRESSION;
+
+        CompressionPolicy policy = serializationParams.getCompressionPolicy();
+        if (policy != null)
+            return policy.getLevel(serializationParams.getCompressionKey(), length);
+        return serializationParams.getGzipLevel();
+    }
+
+    /**
+     * Compresses the body, on several cores when it reaches the minimum size of the parallel
+     * compression, and closes out
+     */
+    private static void writeGzip(OutputStream out, SerializationParams serializationParams, byte[] body,
+                                  int length, int level) throws IOException {
+        CountingOutputStream counter = new CountingOutputStream(out);
+        int parallelMinSize = serializationParams.getGzipParallelMinSize();
+        if ((parallelMinSize > 0) && (length >= parallelMinSize) && ParallelGzip.isEnabled()) {
+            ParallelGzip.compress(body, 0, length, level, counter);
+            counter.close();
+        } else {
+            OutputStream gzip = createGzipStream(counter, serializationParams, level);
+            gzip.write(body, 0, length);
+            gzip.close();
         }
+        compressed(serializationParams, level, length, counter.getCount());
+    }
+
+    /**
+     * Reports a compressed body to the compression policy
+     */
+    static void compressed(SerializationParams serializationParams, int level, long size, long compressedSize) {
+        CompressionPolicy policy = serializationParams.getCompressionPolicy();
+        if (policy != null)
+            policy.compressed(serializationParams.getCompressionKey(), level, size, compressedSize);
+    }
+
+    /**
+     * @return stream compressing into out with the buffer size of the settings
+     */
+    private static OutputStream createGzipStream(OutputStream out, SerializationParams serializationParams,
+                                                 final int level) throws IOException {
+        return new GZIPOutputStream(out, serializationParams.getGzipBufferSize()) {
+            {
+                def.setLevel(level);
+            }
+
+            /**
+             * GZIPOutputStream only flushes the deflater since Java 7, when it is asked to in its
+             * constructor. Without a flush of the deflater, the periodic flushes of streamed
+             * responses wouldn't send anything.
+             */
+            @Override
+            public void flush() throws IOException {
+                if (ParallelGzip.canSyncFlush() && !def.finished()) {
+                    int length;
+                    while ((length = ParallelGzip.syncFlush(def, buf, 0, buf.length)) > 0) {
+                        out.write(buf, 0, length);
+                        if (length < buf.length)
+                            break;
+                    }
+                }
+                out.flush();
+            }
+        };
+    }
+
+    /**
+     * @param serializationParams response settings and serialized JSON
+     * @return the complete response body, with the prefix and the suffix, in the encoding of the
+     *         response
+     * @throws IOException
+     */
+    public static byte[] getResponseBody(SerializationParams serializationParams) throws IOException {
+        String encoding = serializationParams.getEncoding();
+        String json = serializationParams.getSerializedJSON();
+        String prefix = getResponsePrefix(serializationParams);
+        String suffix = getResponseSuffix(serializationParams);
+
+        if (!JSONByteOutput.isSupported(encoding))
+            return (prefix + TextUtils.noNull(json) + suffix).getBytes(encoding);
+
+        JSONByteOutput out = new JSONByteOutput(encoding, new byte[RESPONSE_BUFFER_SIZE]);
+        out.write(prefix);
+        if (json != null)
+            out.write(json, 0, json.length());
+        out.write(suffix);
+        byte[] body = new byte[out.size()];
+        System.arraycopy(out.getBuffer(), 0, body, 0, body.length);
+        return body;
+    }
 
+    /**
+     * Writes a response body returned by {@link #getResponseBody(SerializationParams)}, with its
+     * entity tag
+     *
+     * @param serializationParams response settings, the serialized JSON is ignored
+     * @param body                encoded body
+     * @param compressed          true if the body is compressed with GZIP
+     * @param etag                quoted entity tag of the body, or null
+     * @throws IOException
+     */
+    public static void writeJSONToResponse(SerializationParams serializationParams, byte[] body,
+                                           boolean compressed, String etag) throws IOException {
+        HttpServletResponse response = serializationParams.getResponse();
+
+        writeResponseHeaders(serializationParams);
+        if (compressed)
+            response.addHeader("Content-Encoding", "gzip");
+        if (etag != null)
+            response.setHeader("ETag", etag);
+
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    /**
+     * @return new digest to compute the entity tag of a response
+     */
+    public static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            //every JVM supports MD5
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    /**
+     * @param digest digest of the uncompressed response body
+     * @param gzip   true if the body is sent compressed, the compressed body has its own tag
+     * @return quoted entity tag
+     */
+    public static String getETag(byte[] digest, boolean gzip) {
+        char[] chars = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            chars[2 * i] = HEX[(digest[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX[digest[i] & 0xf];
+        }
+        return gzip ? "\"" + new String(chars) + "-gzip\"" : "\"" + new String(chars) + "\"";
+    }
+
+    /**
+     * @param body response body
+     * @return the body compressed with GZIP
+     * @throws IOException
+     */
+    static byte[] gzip(byte[] body) throws IOException {
+        return gzip(body, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param body  response body
+     * @param level deflate level
+     * @return the body compressed with GZIP
+     * @throws IOException
+     */
+    static byte[] gzip(byte[] body, final int level) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+        GZIPOutputStream gzip = new GZIPOutputStream(out) {
+            {
+                def.setLevel(level);
+            }
+        };
+        gzip.write(body);
+        gzip.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * @param body                response body
+     * @param serializationParams the compression settings
+     * @param level               level from {@link #getGzipLevel(SerializationParams, int)}
+     * @return the body compressed with GZIP
+     * @throws IOException
+     */
+    static byte[] gzip(byte[] body, SerializationParams serializationParams, int level) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+        writeGzip(out, serializationParams, body, body.length, level);
+        return out.toByteArray();
+    }
+
+    /**
+     * @param request request holding an If-None-Match header or not
+     * @param etag    quoted entity tag of the current response, weak or not
+     * @return true if the client has the current response, compared like weak entity tags
+     */
+    public static boolean isNotModified(HttpServletRequest request, String etag) {
+        String header = request.getHeader("If-None-Match");
+        if (header == null)
+            return false;
+
+        //weak comparison
+        if (etag.startsWith("W/"))
+            etag = etag.substring(2);
+
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/"))
+                tag = tag.substring(2);
+            if (tag.equals("*") || tag.equals(etag))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Starts a response whose JSON text is streamed while it is generated, instead of being passed in
+     * the SerializationParams. Sets the headers and writes the prefix, Content-Length is not set.
+     * The returned writer must be handed to {@link #closeJSONResponse(Writer, SerializationParams)}
+     * once the JSON text has been written to it. The text is encoded straight into the response
+     * output stream.
+     *
+     * @param serializationParams response settings, the serialized JSON is ignored
+     * @return writer to stream the JSON text to
+     * @throws IOException
+     */
+    public static Writer openJSONResponse(SerializationParams serializationParams) throws IOException {
+        return openJSONResponse(serializationParams, null);
+    }
+
+    /**
+     * Starts a streamed response like {@link #openJSONResponse(SerializationParams)}, adding the
+     * body to a digest before it is compressed. Flushing or closing the writer doesn't flush the
+     * response, which stays uncommitted as long as the body fits in the buffer of the response,
+     * so an entity tag can still be set or the body replaced once the digest is complete.
+     *
+     * @param serializationParams response settings, the serialized JSON is ignored
+     * @param digest              digest of the body, from {@link #createDigest()}, or null
+     * @return writer to stream the JSON text to
+     * @throws IOException
+     */
+    public static Writer openJSONResponse(SerializationParams serializationParams, MessageDigest digest)
+            throws IOException {
+        HttpServletResponse response = serializationParams.getResponse();
+
+        writeResponseHeaders(serializationParams);
+
+        String encoding = serializationParams.getEncoding();
+        OutputStream out = response.getOutputStream();
+        if (digest != null)
+            out = new UnflushedOutputStream(out);
+        if (serializationParams.isGzip())
+            out = new ThresholdGzipOutputStream(out, serializationParams);
+        if (digest != null)
+            out = new DigestOutputStream(out, digest);
+
+        Writer writer;
+        if (JSONByteOutput.isSupported(encoding))
+            writer = new JSONByteOutput(out, encoding, JSONByteOutput.DEFAULT_BUFFER_SIZE);
+        else
+            writer = new OutputStreamWriter(out, encoding);
+
+        writer.write(getResponsePrefix(serializationParams));
+        return writer;
+    }
+
+    /**
+     * Ends a response started with {@link #openJSONResponse(SerializationParams)}, writing the suffix
+     * and flushing the output.
+     *
+     * @param writer              writer returned by openJSONResponse
+     * @param serializationParams the response settings passed to openJSONResponse
+     * @throws IOException
+     */
+    public static void closeJSONResponse(Writer writer, SerializationParams serializationParams) throws IOException {
+        writer.write(getResponseSuffix(serializationParams));
+        if (serializationParams.isGzip())
+            writer.close();
+        else
+            writer.flush();
+    }
+
+    private static String getResponsePrefix(SerializationParams serializationParams) {
+        if (TextUtils.stringSet(serializationParams.getWrapPrefix()))
+            return serializationParams.getWrapPrefix();
+        else if (serializationParams.isWrapWithComments())
+            return "/* ";
+        else if (serializationParams.isPrefix())
+            return "{}&& ";
+        return "";
+    }
+
+    private static String getResponseSuffix(SerializationParams serializationParams) {
+        String suffix = "";
+        if (!TextUtils.stringSet(serializationParams.getWrapPrefix()) && serializationParams.isWrapWithComments())
+            suffix = " */";
+
+        if (TextUtils.stringSet(serializationParams.getWrapSuffix()))
+            suffix += serializationParams.getWrapSuffix();
+        return suffix;
+    }
+
+    private static void writeResponseHeaders(SerializationParams serializationParams) throws IOException {
         HttpServletResponse response = serializationParams.getResponse();
 
         //status or error code
@@ -204,32 +589,132 @@ public class JSONUtil {
             response.setHeader("Expires", "0");
             response.setHeader("Pragma", "No-cache");
         }
+    }
 
-        if (serializationParams.isGzip()) {
-            response.addHeader("Content-Encoding", "gzip");
-            GZIPOutputStream out = null;
-            InputStream in = null;
-            try {
-                out = new GZIPOutputStream(response.getOutputStream());
-                in = new ByteArrayInputStream(json.getBytes());
-                byte[] buf = new byte[1024];
-                int len;
-                while ((len = in.read(buf)) > 0) {
-                    out.write(buf, 0, len);
+    /**
+     * Holds the beginning of a streamed body until it reaches the minimum size to be compressed.
+     * A smaller body, or one the compression policy doesn't compress, is written as it is.
+     */
+    private static final class ThresholdGzipOutputStream extends OutputStream {
+        private final CountingOutputStream out;
+        private final SerializationParams serializationParams;
+        private byte[] pending;
+        private int count;
+        private long size;
+        private int level = CompressionPolicy.NO_COMPRESSION;
+        private OutputStream gzip;
+
+        ThresholdGzipOutputStream(OutputStream out, SerializationParams serializationParams) {
+            this.out = new CountingOutputStream(out);
+            this.serializationParams = serializationParams;
+            this.pending = new byte[Math.min(Math.max(serializationParams.getGzipMinSize(), 0), RESPONSE_BUFFER_SIZE)];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.size += len;
+            if (this.gzip != null) {
+                this.gzip.write(b, off, len);
+            } else if (this.pending == null) {
+                this.out.write(b, off, len);
+            } else if (this.count + len < this.serializationParams.getGzipMinSize()) {
+                if (this.count + len > this.pending.length) {
+                    byte[] grown = new byte[Math.max(this.pending.length * 2, this.count + len)];
+                    System.arraycopy(this.pending, 0, grown, 0, this.count);
+                    this.pending = grown;
                 }
-            } finally {
-                if (in != null)
-                    in.close();
-                if (out != null) {
-                    out.finish();
-                    out.close();
+                System.arraycopy(b, off, this.pending, this.count, len);
+                this.count += len;
+            } else {
+                //nothing was written to the response yet, the header can still be set
+                this.level = getGzipLevel(this.serializationParams, -1);
+                OutputStream target = this.out;
+                if (this.level != CompressionPolicy.NO_COMPRESSION) {
+                    this.serializationParams.getResponse().addHeader("Content-Encoding", "gzip");
+                    this.gzip = createGzipStream(this.out, this.serializationParams, this.level);
+                    target = this.gzip;
                 }
+                target.write(this.pending, 0, this.count);
+                target.write(b, off, len);
+                this.pending = null;
             }
+        }
 
-        } else {
-            response.setContentLength(json.getBytes(serializationParams.getEncoding()).length);
-            PrintWriter out = response.getWriter();
-            out.print(json);
+        /**
+         * The beginning of the body is held until the compression is decided
+         */
+        @Override
+        public void flush() throws IOException {
+            if (this.gzip != null)
+                this.gzip.flush();
+            else if (this.pending == null)
+                this.out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.gzip != null) {
+                this.gzip.close();
+                compressed(this.serializationParams, this.level, this.size, this.out.getCount());
+            } else {
+                if (this.pending != null)
+                    this.out.write(this.pending, 0, this.count);
+                this.out.close();
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes written to a stream
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.out.write(b);
+            this.count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.out.write(b, off, len);
+            this.count += len;
+        }
+
+        long getCount() {
+            return this.count;
+        }
+    }
+
+    /**
+     * Leaves the flushing of the response to the container
+     */
+    private static final class UnflushedOutputStream extends FilterOutputStream {
+        UnflushedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
         }
     }
 
@@ -0,0 +1,121 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.googlecode.jsonplugin;
+
+import java.beans.IntrospectionException;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>How {@link JSONWriter} serializes the instances of a class. The type is resolved once per
+ * concrete class, so serializing a value takes a single lookup instead of a chain of instanceof
+ * tests.</p>
+ */
+@SuppressWarnings("unchecked")
+enum JSONValueType {
+    /**
+     * Class, String, Character and Locale, written as their toString()
+     */
+    STRING,
+    BOOLEAN,
+    NUMBER,
+    PRIMITIVE_ARRAY,
+    MAP,
+    ARRAY,
+    ITERABLE,
+    ITERATOR,
+    ENUMERATION,
+    DATE,
+    CALENDAR,
+    ENUM,
+    TEMPORAL,
+    BEAN;
+
+    private static final ConcurrentMap<Class, JSONValueType> cache = new ConcurrentHashMap<Class, JSONValueType>();
+
+    /**
+     * @param clazz concrete class of a value
+     * @return how the instances of clazz are serialized
+     */
+    public static JSONValueType of(Class clazz) {
+        JSONValueType type = cache.get(clazz);
+        if (type == null) {
+            type = resolve(clazz);
+            cache.put(clazz, type);
+        }
+        return type;
+    }
+
+    /**
+     * @return true if the values of this type can't hold references to other objects, the scalar
+     *         types are declared first
+     */
+    public boolean isScalar() {
+        return this.ordinal() <= PRIMITIVE_ARRAY.ordinal();
+    }
+
+    private static JSONValueType resolve(Class clazz) {
+        if (Class.class.equals(clazz))
+            return STRING;
+        if (Boolean.class.equals(clazz))
+            return BOOLEAN;
+        if (Number.class.isAssignableFrom(clazz))
+            return NUMBER;
+        if (String.class.equals(clazz) || Character.class.equals(clazz))
+            return STRING;
+        if (clazz.isArray())
+            return clazz.getComponentType().isPrimitive() ? PRIMITIVE_ARRAY : ARRAY;
+        if (Map.class.isAssignableFrom(clazz))
+            return MAP;
+        if (Iterable.class.isAssignableFrom(clazz))
+            return ITERABLE;
+        //beans that happen to implement Iterator or Enumeration are still written as beans
+        if (Iterator.class.isAssignableFrom(clazz) && !hasProperties(clazz))
+            return ITERATOR;
+        if (Enumeration.class.isAssignableFrom(clazz) && !hasProperties(clazz))
+            return ENUMERATION;
+        if (Date.class.isAssignableFrom(clazz))
+            return DATE;
+        if (Calendar.class.isAssignableFrom(clazz))
+            return CALENDAR;
+        if (Locale.class.equals(clazz))
+            return STRING;
+        if (Enum.class.isAssignableFrom(clazz))
+            return ENUM;
+        if (JSONDateFormat.isTemporal(clazz))
+            return TEMPORAL;
+        return BEAN;
+    }
+
+    private static boolean hasProperties(Class clazz) {
+        try {
+            return JSONBeanInfo.getBeanInfo(clazz, false).getProperties().length > 0;
+        } catch (IntrospectionException e) {
+            return true;
+        }
+    }
+}
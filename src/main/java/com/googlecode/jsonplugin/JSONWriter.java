@@ -20,35 +20,32 @@
  */
 package com.googlecode.jsonplugin;
 
-import java.beans.BeanInfo;
-import java.beans.Introspector;
-import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.io.Writer;
 import java.lang.reflect.Array;
-import java.lang.reflect.Method;
-import java.text.CharacterIterator;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.text.StringCharacterIterator;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.Enumeration;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.Locale;
+import java.util.List;
+import java.util.TimeZone;
 import java.util.Map;
-import java.util.Stack;
 import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import com.googlecode.jsonplugin.annotations.JSON;
-
 /**
  * <p>Serializes an object into JavaScript Object Notation (JSON). If cyclic references are detected
  * they will be nulled out. </p>
  */
 @SuppressWarnings("unchecked")
-class JSONWriter {
+class JSONWriter implements TypeSerializer.Output {
     private static final Log log = LogFactory.getLog(JSONWriter.class);
 
     /**
@@ -57,17 +54,128 @@ class JSONWriter {
     public static final boolean ENUM_AS_BEAN_DEFAULT = false;
 
     static char[] hex = "0123456789ABCDEF".toCharArray();
-    private StringBuilder buf = new StringBuilder();
-    private Stack stack = new Stack();
+
+    /**
+     * Escape sequences of the ASCII characters, null for the ones written as is
+     */
+    private static final String[] ESCAPES = new String[128];
+
+    /**
+     * Last of the C1 control characters, which are escaped like the ASCII ones
+     */
+    private static final char LAST_CONTROL = '\u009F';
+
+    static {
+        for (int c = 0; c < 0x20; c++)
+            ESCAPES[c] = "\\u00" + hex[c >> 4] + hex[c & 0xf];
+        ESCAPES[0x7f] = "\\u007F";
+        ESCAPES['"'] = "\\\"";
+        ESCAPES['\\'] = "\\\\";
+        ESCAPES['/'] = "\\/";
+        ESCAPES['\b'] = "\\b";
+        ESCAPES['\f'] = "\\f";
+        ESCAPES['\n'] = "\\n";
+        ESCAPES['\r'] = "\\r";
+        ESCAPES['\t'] = "\\t";
+    }
+
+    /**
+     * Bigger text buffers are left to the garbage collector instead of being kept by the thread
+     */
+    static final int MAX_RETAINED_CHARS = 64 * 1024;
+
+    private static final ThreadLocal<JSONWriter> pool = new ThreadLocal<JSONWriter>();
+
+    private final boolean pooled;
+    private boolean inUse;
+    private StringBuilder text;
+    private JSONCharOutput charOutput;
+    private JSONOutput out;
+    private final char[] numberBuffer = new char[JSONNumberFormat.MAX_CHARS];
+    /**
+     * Objects on the path from the root to the value being serialized, compared by identity
+     */
+    private final Map<Object, Object> stack = new IdentityHashMap<Object, Object>();
     private boolean ignoreHierarchy = true;
     private Object root;
     private boolean buildExpr = true;
     private String exprStack = "";
     private Collection<Pattern> excludeProperties;
     private Collection<Pattern> includeProperties;
-    private DateFormat formatter;
+    private JSONPathFilter pathFilter;
+    private JSONPathFilter filter;
+    private int filterState;
+    private final char[] dateBuffer = new char[JSONDateFormat.MAX_CHARS];
+    private TimeZone timeZone;
     private boolean enumAsBean = ENUM_AS_BEAN_DEFAULT;
     private boolean excludeNullProperties;
+    private boolean assumeAcyclic;
+    private boolean fieldAccess;
+    private boolean sortMapKeys;
+    private int flushInterval;
+    private int flushSize;
+    private int unflushedElements;
+    private long flushedCount;
+    private TypeSerializerRegistry serializers;
+    private JSONFragmentCache fragments = JSONFragmentCache.getDefault();
+    private boolean capturing;
+    /**
+     * Set when a cyclic reference is met while a fragment is captured
+     */
+    private boolean capturedCycle;
+
+    public JSONWriter() {
+        this(false);
+    }
+
+    private JSONWriter(boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    /**
+     * Returns the writer kept by the current thread, which reuses the buffers grown by previous
+     * serializations. The writer must be handed back with {@link #release()} when the
+     * serialization is done. A new writer is returned when the one of the thread is in use, for
+     * instance when a getter serializes another object.
+     *
+     * @return writer with the default settings
+     */
+    static JSONWriter acquire() {
+        JSONWriter writer = pool.get();
+        if (writer == null) {
+            writer = new JSONWriter(true);
+            pool.set(writer);
+        } else if (writer.inUse) {
+            return new JSONWriter();
+        }
+        writer.inUse = true;
+        return writer;
+    }
+
+    /**
+     * Restores the default settings of a writer obtained from {@link #acquire()} and returns it to
+     * the thread. Does nothing for writers created with the constructor.
+     */
+    void release() {
+        if (!this.pooled)
+            return;
+
+        this.ignoreHierarchy = true;
+        this.enumAsBean = ENUM_AS_BEAN_DEFAULT;
+        this.assumeAcyclic = false;
+        this.fieldAccess = false;
+        this.sortMapKeys = false;
+        this.flushInterval = 0;
+        this.flushSize = 0;
+        this.pathFilter = null;
+        this.serializers = null;
+        this.fragments = JSONFragmentCache.getDefault();
+        this.excludeProperties = null;
+        this.includeProperties = null;
+        this.filter = null;
+        this.exprStack = "";
+        this.inUse = false;
+    }
 
     /**
      * @param object Object to be serialized into JSON
@@ -85,83 +193,274 @@ class JSONWriter {
      */
     public String write(Object object, Collection<Pattern> excludeProperties, Collection<Pattern> includeProperties, boolean excludeNullProperties)
             throws JSONException {
+        StringBuilder buf = (this.text != null) ? this.text : new StringBuilder();
+        this.text = null;
+        try {
+            this.write(object, buf, excludeProperties, includeProperties, excludeNullProperties);
+
+            return buf.toString();
+        } finally {
+            if (this.pooled && (buf.capacity() <= MAX_RETAINED_CHARS)) {
+                buf.setLength(0);
+                this.text = buf;
+            }
+        }
+    }
+
+    /**
+     * Serializes an object into JSON, writing the text to the given destination while the object
+     * graph is walked. At most a fixed size buffer of output is held in memory, the destination
+     * is neither flushed nor closed.
+     *
+     * @param object Object to be serialized into JSON
+     * @param out    destination of the JSON text, usually a java.io.Writer
+     * @throws JSONException when the object can't be serialized or the destination can't be written to
+     */
+    public void write(Object object, Appendable out, Collection<Pattern> excludeProperties, Collection<Pattern> includeProperties, boolean excludeNullProperties)
+            throws JSONException {
         this.excludeNullProperties = excludeNullProperties;
-        this.buf.setLength(0);
+        if (out instanceof JSONOutput) {
+            this.out = (JSONOutput) out;
+        } else {
+            if (this.charOutput == null)
+                this.charOutput = new JSONCharOutput(out);
+            else
+                this.charOutput.reset(out);
+            this.out = this.charOutput;
+        }
         this.root = object;
         this.exprStack = "";
         this.buildExpr = ((excludeProperties != null) && !excludeProperties.isEmpty()) || ((includeProperties != null) && !includeProperties.isEmpty());
         this.excludeProperties = excludeProperties;
         this.includeProperties = includeProperties;
-        this.value(object, null);
-
-        return this.buf.toString();
+        this.filter = this.buildExpr ? this.pathFilter : null;
+        this.filterState = JSONPathFilter.ROOT;
+        this.unflushedElements = 0;
+        this.flushedCount = 0;
+        try {
+            this.value(object, null);
+            this.out.flushBuffer();
+        } catch (IOException e) {
+            throw new JSONException(e);
+        } finally {
+            if (this.charOutput != null)
+                this.charOutput.reset(null);
+            this.out = null;
+            this.root = null;
+            this.timeZone = null;
+            this.stack.clear();
+        }
     }
 
     /**
      * Detect cyclic references
      */
-    private void value(Object object, Method method) throws JSONException {
+    private void value(Object object, JSONProperty property) throws JSONException {
         if (object == null) {
             this.add("null");
 
             return;
         }
 
-        if (this.stack.contains(object)) {
-            Class clazz = object.getClass();
+        //cyclic reference
+        if (!this.assumeAcyclic && this.stack.containsKey(object)) {
+            if (log.isDebugEnabled()) {
+                log.debug("Cyclic reference detected on " + object);
+            }
+            if (this.capturing)
+                this.capturedCycle = true;
 
-            //cyclic reference
-            if (clazz.isPrimitive() || clazz.equals(String.class)) {
-                this.process(object, method);
-            } else {
-                if (log.isDebugEnabled()) {
-                    log.debug("Cyclic reference detected on " + object);
-                }
+            this.add("null");
 
-                this.add("null");
-            }
+            return;
+        }
+
+        //only the values of the properties marked with @JSON(cache=true), never the root object
+        if ((this.fragments != null) && !this.capturing && (property != null) && property.isCache()) {
+            this.fragment(object, property);
+            return;
+        }
 
+        this.process(object, property);
+    }
+
+    /**
+     * Copy the text of the value from the fragment cache, serialize it into the cache first if
+     * it is not there
+     */
+    private void fragment(Object object, JSONProperty property) throws JSONException {
+        JSONFragmentCache.Key key = this.fragmentKey(object, property);
+        if (key == null) {
+            this.process(object, property);
             return;
         }
 
-        this.process(object, method);
+        JSONFragmentCache.Fragment fragment = this.fragments.get(key);
+        try {
+            if (fragment == null) {
+                JSONOutput out = this.out;
+                StringBuilder text = new StringBuilder();
+                this.out = new JSONCharOutput(text, 1024);
+                this.capturing = true;
+                this.capturedCycle = false;
+                try {
+                    this.process(object, property);
+                    this.out.flushBuffer();
+                } finally {
+                    this.out = out;
+                    this.capturing = false;
+                }
+                //where a cycle is cut depends on the ancestors of the value, the text is only
+                //valid here
+                if (this.capturedCycle)
+                    fragment = new JSONFragmentCache.Fragment(text.toString());
+                else
+                    fragment = this.fragments.put(key, text);
+            }
+            this.out.writeToken(fragment.chars, fragment.utf8, 0);
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+    }
+
+    /**
+     * @return key of the value in the fragment cache, null if it can't be cached
+     */
+    private JSONFragmentCache.Key fragmentKey(Object object, JSONProperty property) {
+        //the text under regular expressions depends on the whole path
+        if (this.buildExpr && (this.filter == null))
+            return null;
+
+        Object value = object;
+        boolean identity = true;
+        if (object instanceof Versioned) {
+            Object version = ((Versioned) object).getVersion();
+            if (version != null) {
+                value = new JSONFragmentCache.Version(object.getClass(), version);
+                identity = false;
+            }
+        }
+
+        int flags = (this.enumAsBean ? 1 : 0) | (this.excludeNullProperties ? 2 : 0) | (this.fieldAccess ? 4 : 0)
+                | (this.sortMapKeys ? 16 : 0);
+        return new JSONFragmentCache.Key(value, identity, this.filter, this.filterState, flags, this.serializers,
+                property.getDateFormat());
     }
 
     /**
      * Serialize object into json
      */
-    private void process(Object object, Method method) throws JSONException {
-        this.stack.push(object);
+    private void process(Object object, JSONProperty property) throws JSONException {
+        if (this.serializers != null) {
+            TypeSerializer serializer = this.serializers.getSerializer(object.getClass());
+            if (serializer != null) {
+                this.custom(serializer, object);
+                return;
+            }
+        }
+
+        JSONValueType type = JSONValueType.of(object.getClass());
+
+        //only values that can hold references are tracked
+        boolean tracked = !this.assumeAcyclic && !type.isScalar();
+        if (tracked)
+            this.stack.put(object, object);
 
-        if (object instanceof Class) {
+        switch (type) {
+        case STRING:
             this.string(object);
-        } else if (object instanceof Boolean) {
+            break;
+        case BOOLEAN:
             this.bool(((Boolean) object).booleanValue());
-        } else if (object instanceof Number) {
-            this.add(object);
-        } else if (object instanceof String) {
-            this.string(object);
-        } else if (object instanceof Character) {
-            this.string(object);
-        } else if (object instanceof Map) {
-            this.map((Map) object, method);
-        } else if (object.getClass().isArray()) {
-            this.array(object, method);
-        } else if (object instanceof Iterable) {
-            this.array(((Iterable) object).iterator(), method);
-        } else if (object instanceof Date) {
-            this.date((Date) object, method);
-        } else if (object instanceof Calendar) {
-            this.date(((Calendar) object).getTime(), method);
-        } else if (object instanceof Locale) {
-            this.string(object);
-        } else if (object instanceof Enum) {
+            break;
+        case NUMBER:
+            this.number((Number) object);
+            break;
+        case PRIMITIVE_ARRAY:
+            this.primitiveArray(object);
+            break;
+        case MAP:
+            this.map((Map) object, property);
+            break;
+        case ARRAY:
+            this.array(object, property);
+            break;
+        case ITERABLE:
+            this.array(((Iterable) object).iterator(), property);
+            break;
+        case ITERATOR:
+            this.array((Iterator) object, property);
+            break;
+        case ENUMERATION:
+            this.array(new EnumerationIterator((Enumeration) object), property);
+            break;
+        case DATE:
+            this.date((Date) object, property);
+            break;
+        case CALENDAR:
+            this.date(((Calendar) object).getTime(), property);
+            break;
+        case ENUM:
             this.enumeration((Enum) object);
-        } else {
+            break;
+        case TEMPORAL:
+            this.temporal(object, property);
+            break;
+        default:
             this.bean(object);
         }
 
-        this.stack.pop();
+        if (tracked)
+            this.stack.remove(object);
+    }
+
+    /**
+     * Serialize object with a registered serializer
+     */
+    private void custom(TypeSerializer serializer, Object object) throws JSONException {
+        if (!this.assumeAcyclic)
+            this.stack.put(object, object);
+
+        try {
+            serializer.serialize(object, this);
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+
+        if (!this.assumeAcyclic)
+            this.stack.remove(object);
+    }
+
+    public Writer getWriter() {
+        return this.out;
+    }
+
+    public void writeRaw(char[] chars, byte[] utf8) throws JSONException {
+        try {
+            this.out.writeToken(chars, utf8, 0);
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+    }
+
+    public void writeString(CharSequence value) throws JSONException {
+        this.string(value);
+    }
+
+    public void writeNumber(long value) throws JSONException {
+        this.number(value);
+    }
+
+    public void writeNumber(double value) throws JSONException {
+        this.number(value);
+    }
+
+    public void writeBoolean(boolean value) throws JSONException {
+        this.bool(value);
+    }
+
+    public void writeValue(Object value) throws JSONException {
+        this.value(value, null);
     }
 
     /**
@@ -170,70 +469,44 @@ class JSONWriter {
     private void bean(Object object) throws JSONException {
         this.add("{");
 
-        BeanInfo info;
-
         try {
             Class clazz = object.getClass();
 
-            info = ((object == this.root) && this.ignoreHierarchy) ? Introspector
-                    .getBeanInfo(clazz, clazz.getSuperclass()) : Introspector
-                    .getBeanInfo(clazz);
-
-            PropertyDescriptor[] props = info.getPropertyDescriptors();
+            JSONBeanInfo info = JSONBeanInfo.getBeanInfo(clazz, (object == this.root) && this.ignoreHierarchy,
+                    this.fieldAccess);
+            int state = this.filterState;
+            JSONBeanInfo.Plan plan = info.getPlan(this.filter, state);
+            JSONProperty[] props = plan.getProperties();
+            int[] states = plan.getStates();
 
             boolean hasData = false;
             for (int i = 0; i < props.length; ++i) {
-                PropertyDescriptor prop = props[i];
-                String name = prop.getName();
-                Method accessor = prop.getReadMethod();
-                Method baseAccessor = null;
-                if (clazz.getName().indexOf("$$EnhancerByCGLIB$$") > -1) {
-                    try {
-                        baseAccessor = Class.forName(
-                                clazz.getName().substring(0, clazz.getName().indexOf("$$")))
-                                .getMethod(accessor.getName(), accessor.getParameterTypes());
-                    } catch (Exception ex) {
-                        log.debug(ex.getMessage(), ex);
-                    }
-                } else
-                    baseAccessor = accessor;
-
-                if (baseAccessor != null) {
-
-                    JSON json = baseAccessor.getAnnotation(JSON.class);
-                    if (json != null) {
-                        if (!json.serialize())
-                            continue;
-                        else if (json.name().length() > 0)
-                            name = json.name();
-                    }
+                JSONProperty prop = props[i];
 
-                    //ignore "class" and others
-                    if (this.shouldExcludeProperty(clazz, prop)) {
+                String expr = null;
+                if (states != null) {
+                    this.filterState = states[i];
+                } else if (this.buildExpr) {
+                    expr = this.expandExpr(prop.getName());
+                    if (this.shouldExcludeProperty(expr)) {
                         continue;
                     }
-                    String expr = null;
-                    if (this.buildExpr) {
-                        expr = this.expandExpr(name);
-                        if (this.shouldExcludeProperty(expr)) {
-                            continue;
-                        }
-                        expr = this.setExprStack(expr);
-                    }
+                    expr = this.setExprStack(expr);
+                }
 
-                    Object value = accessor.invoke(object, new Object[0]);
-                    boolean propertyPrinted = this.add(name, value, accessor, hasData);
-                    hasData = hasData || propertyPrinted;
-                    if (this.buildExpr) {
-                        this.setExprStack(expr);
-                    }
+                Object value = prop.getValue(object);
+                boolean propertyPrinted = this.add(prop, value, hasData);
+                hasData = hasData || propertyPrinted;
+                this.filterState = state;
+                if (expr != null) {
+                    this.setExprStack(expr);
                 }
             }
 
             // special-case handling for an Enumeration - include the name() as a property */
             if (object instanceof Enum) {
                 Object value = ((Enum) object).name();
-                this.add("_name", value, object.getClass().getMethod("name"), hasData);
+                this.add("_name", value, null, hasData);
             }
         } catch (Exception e) {
             throw new JSONException(e);
@@ -253,21 +526,6 @@ class JSONWriter {
         }
     }
 
-    /**
-     * Ignore "class" field
-     */
-    private boolean shouldExcludeProperty(Class clazz, PropertyDescriptor prop)
-            throws SecurityException, NoSuchFieldException {
-        String name = prop.getName();
-
-        if (name.equals("class") || name.equals("declaringClass")
-                || name.equals("cachedSuperClass") || name.equals("metaClass")) {
-            return true;
-        }
-
-        return false;
-    }
-
     private String expandExpr(int i) {
         return this.exprStack + "[" + i + "]";
     }
@@ -284,6 +542,28 @@ class JSONWriter {
         return s;
     }
 
+    /**
+     * Moves the compiled filter to the state of a child, the caller restores the parent state
+     *
+     * @return false if the child is filtered out
+     */
+    private boolean enterPath(int state, Object path) {
+        if (this.filter.isExcluded(state)) {
+            if (log.isDebugEnabled())
+                log.debug("Ignoring property because of include/exclude rules: " + path);
+            return false;
+        }
+        this.filterState = state;
+        return true;
+    }
+
+    /**
+     * @return true if the compiled filter excludes every child of the current value
+     */
+    private boolean isExcludingChildren() {
+        return (this.filter != null) && this.filter.isExcludingChildren(this.filterState);
+    }
+
     private boolean shouldExcludeProperty(String expr) {
         if (this.excludeProperties != null) {
             for (Pattern pattern : this.excludeProperties) {
@@ -310,10 +590,28 @@ class JSONWriter {
         return false;
     }
 
+    /**
+     * Add property/value pair to buffer, the name of the property is copied pre-encoded
+     */
+    private boolean add(JSONProperty property, Object value, boolean hasData) throws JSONException {
+        if (!excludeNullProperties || value != null) {
+            try {
+                //the token starts with the separator
+                this.out.writeToken(property.getNameToken(), property.getNameBytes(), hasData ? 0 : 1);
+            } catch (IOException e) {
+                throw new JSONException(e);
+            }
+            this.value(value, property);
+            return true;
+        }
+
+        return false;
+    }
+
     /**
      * Add name/value pair to buffer
      */
-    private boolean add(String name, Object value, Method method, boolean hasData) throws JSONException {
+    private boolean add(String name, Object value, JSONProperty property, boolean hasData) throws JSONException {
         if (!excludeNullProperties || value != null) {
             if (hasData) {
                 this.add(',');
@@ -321,7 +619,7 @@ class JSONWriter {
             this.add('"');
             this.add(name);
             this.add("\":");
-            this.value(value, method);
+            this.value(value, property);
             return true;
         }
 
@@ -331,10 +629,20 @@ class JSONWriter {
     /**
      * Add map to buffer
      */
-    private void map(Map map, Method method) throws JSONException {
+    private void map(Map map, JSONProperty property) throws JSONException {
         this.add("{");
 
-        Iterator it = map.entrySet().iterator();
+        Iterator it;
+        if (this.isExcludingChildren()) {
+            it = Collections.EMPTY_SET.iterator();
+        } else if (this.sortMapKeys && (map.size() > 1)) {
+            List<Map.Entry> entries = new ArrayList<Map.Entry>(map.entrySet());
+            Collections.sort(entries, KEY_ORDER);
+            it = entries.iterator();
+        } else {
+            it = map.entrySet().iterator();
+        }
+        int state = this.filterState;
 
         boolean warnedNonString = false; // one report per map
 		boolean hasData = false;
@@ -348,6 +656,10 @@ class JSONWriter {
                             .error("Cannot build expression for null key in " +
                                     this.exprStack);
                     continue;
+                } else if (this.filter != null) {
+                    String name = key.toString();
+                    if (!this.enterPath(this.filter.property(state, name), name))
+                        continue;
                 } else {
                     expr = this.expandExpr(key.toString());
                     if (this.shouldExcludeProperty(expr)) {
@@ -365,10 +677,11 @@ class JSONWriter {
 						+ key.getClass().getName());
 				warnedNonString = true;
 			}
-            this.value(key.toString(), method);
+            this.value(key.toString(), property);
             this.add(":");
-            this.value(entry.getValue(), method);
-            if (this.buildExpr) {
+            this.value(entry.getValue(), property);
+            this.filterState = state;
+            if (expr != null) {
                 this.setExprStack(expr);
             }
         }
@@ -379,29 +692,49 @@ class JSONWriter {
     /**
      * Add date to buffer
      */
-    private void date(Date date, Method method) {
-        JSON json = null;
-        if (method != null)
-            json = method.getAnnotation(JSON.class);
-        if (this.formatter == null)
-            this.formatter = new SimpleDateFormat(JSONUtil.RFC3339_FORMAT);
+    private void date(Date date, JSONProperty property) throws JSONException {
+        JSONDateFormat format = (property != null) && (property.getDateFormat() != null) ? property
+                .getDateFormat() : JSONDateFormat.getDefault();
+
+        //the default time zone when the serialization started
+        if (this.timeZone == null)
+            this.timeZone = TimeZone.getDefault();
+
+        int length = format.formatRFC3339(date.getTime(), this.timeZone, this.dateBuffer);
+        if (length >= 0)
+            this.string(this.dateBuffer, 0, length);
+        else
+            this.string(format.format(date, this.timeZone));
+    }
 
-        DateFormat formatter = (json != null) && (json.format().length() > 0) ? new SimpleDateFormat(
-                json.format())
-                : this.formatter;
-        this.string(formatter.format(date));
+    /**
+     * Add java.time value to buffer, formatted with @JSON(format=...) or in ISO-8601
+     */
+    private void temporal(Object temporal, JSONProperty property) throws JSONException {
+        if ((property != null) && (property.getDateFormat() != null))
+            this.string(property.getDateFormat().formatTemporal(temporal));
+        else
+            this.string(temporal.toString());
     }
 
     /**
      * Add array to buffer
      */
-    private void array(Iterator it, Method method) throws JSONException {
+    private void array(Iterator it, JSONProperty property) throws JSONException {
         this.add("[");
 
         boolean hasData = false;
+        int state = this.filterState;
+        if (this.isExcludingChildren())
+            it = Collections.EMPTY_LIST.iterator();
         for (int i = 0; it.hasNext(); i++) {
             String expr = null;
-            if (this.buildExpr) {
+            if (this.filter != null) {
+                if (!this.enterPath(this.filter.index(state, i), Integer.valueOf(i))) {
+                    it.next();
+                    continue;
+                }
+            } else if (this.buildExpr) {
                 expr = this.expandExpr(i);
                 if (this.shouldExcludeProperty(expr)) {
                     it.next();
@@ -413,8 +746,10 @@ class JSONWriter {
                 this.add(',');
             }
             hasData = true;
-            this.value(it.next(), method);
-            if (this.buildExpr) {
+            this.value(it.next(), property);
+            this.elementWritten();
+            this.filterState = state;
+            if (expr != null) {
                 this.setExprStack(expr);
             }
         }
@@ -422,18 +757,44 @@ class JSONWriter {
         this.add("]");
     }
 
+    /**
+     * Flushes the destination every flushInterval array elements or flushSize chars or bytes,
+     * so the client receives a long array while it is generated
+     */
+    private void elementWritten() throws JSONException {
+        if (((this.flushInterval <= 0) && (this.flushSize <= 0)) || this.capturing)
+            return;
+
+        this.unflushedElements++;
+        long count = this.out.getCount();
+        if (((this.flushInterval > 0) && (this.unflushedElements >= this.flushInterval))
+                || ((this.flushSize > 0) && (count - this.flushedCount >= this.flushSize))) {
+            try {
+                this.out.flush();
+            } catch (IOException e) {
+                throw new JSONException(e);
+            }
+            this.unflushedElements = 0;
+            this.flushedCount = count;
+        }
+    }
+
     /**
      * Add array to buffer
      */
-    private void array(Object object, Method method) throws JSONException {
+    private void array(Object object, JSONProperty property) throws JSONException {
         this.add("[");
 
-        int length = Array.getLength(object);
+        int length = this.isExcludingChildren() ? 0 : Array.getLength(object);
 
         boolean hasData = false;
+        int state = this.filterState;
         for (int i = 0; i < length; ++i) {
             String expr = null;
-            if (this.buildExpr) {
+            if (this.filter != null) {
+                if (!this.enterPath(this.filter.index(state, i), Integer.valueOf(i)))
+                    continue;
+            } else if (this.buildExpr) {
                 expr = this.expandExpr(i);
                 if (this.shouldExcludeProperty(expr)) {
                     continue;
@@ -444,8 +805,10 @@ class JSONWriter {
                 this.add(',');
             }
             hasData = true;
-            this.value(Array.get(object, i), method);
-            if (this.buildExpr) {
+            this.value(Array.get(object, i), property);
+            this.elementWritten();
+            this.filterState = state;
+            if (expr != null) {
                 this.setExprStack(expr);
             }
         }
@@ -453,60 +816,279 @@ class JSONWriter {
         this.add("]");
     }
 
+    /**
+     * Add array of primitives to buffer, the elements are written without being boxed
+     */
+    private void primitiveArray(Object object) throws JSONException {
+        this.add("[");
+
+        int written = 0;
+        if (this.isExcludingChildren()) {
+            //nothing to write
+        } else if (object instanceof int[]) {
+            int[] array = (int[]) object;
+            for (int i = 0; i < array.length; i++) {
+                if (this.beginElement(i, written)) {
+                    this.number(array[i]);
+                    written++;
+                    this.elementWritten();
+                }
+            }
+        } else if (object instanceof long[]) {
+            long[] array = (long[]) object;
+            for (int i = 0; i < array.length; i++) {
+                if (this.beginElement(i, written)) {
+                    this.number(array[i]);
+                    written++;
+                    this.elementWritten();
+                }
+            }
+        } else if (object instanceof double[]) {
+            double[] array = (double[]) object;
+            for (int i = 0; i < array.length; i++) {
+                if (this.beginElement(i, written)) {
+                    this.number(array[i]);
+                    written++;
+                    this.elementWritten();
+                }
+            }
+        } else if (object instanceof float[]) {
+            float[] array = (float[]) object;
+            for (int i = 0; i < array.length; i++) {
+                if (this.beginElement(i, written)) {
+                    this.number(array[i]);
+                    written++;
+                    this.elementWritten();
+                }
+            }
+        } else if (object instanceof boolean[]) {
+            boolean[] array = (boolean[]) object;
+            for (int i = 0; i < array.length; i++) {
+                if (this.beginElement(i, written)) {
+                    this.bool(array[i]);
+                    written++;
+                    this.elementWritten();
+                }
+            }
+        } else if (object instanceof char[]) {
+            char[] array = (char[]) object;
+            for (int i = 0; i < array.length; i++) {
+                if (this.beginElement(i, written)) {
+                    this.string(array, i, 1);
+                    written++;
+                    this.elementWritten();
+                }
+            }
+        } else if (object instanceof byte[]) {
+            byte[] array = (byte[]) object;
+            for (int i = 0; i < array.length; i++) {
+                if (this.beginElement(i, written)) {
+                    this.number(array[i]);
+                    written++;
+                    this.elementWritten();
+                }
+            }
+        } else {
+            short[] array = (short[]) object;
+            for (int i = 0; i < array.length; i++) {
+                if (this.beginElement(i, written)) {
+                    this.number(array[i]);
+                    written++;
+                    this.elementWritten();
+                }
+            }
+        }
+
+        this.add("]");
+    }
+
+    /**
+     * Applies the include/exclude rules to an element that can't have properties of its own,
+     * and writes the separator in front of it
+     *
+     * @param index   index of the element
+     * @param written number of elements written before this one
+     * @return false if the element is filtered out
+     */
+    private boolean beginElement(int index, int written) throws JSONException {
+        if (this.buildExpr) {
+            boolean excluded = (this.filter != null) ? this.filter.isExcluded(this.filter.index(this.filterState, index))
+                    : this.shouldExcludeProperty(this.expandExpr(index));
+            if (excluded)
+                return false;
+        }
+        if (written > 0)
+            this.add(',');
+        return true;
+    }
+
+    /**
+     * Add number to buffer, the primitive wrappers are formatted without allocating
+     */
+    private void number(Number number) throws JSONException {
+        if ((number instanceof Integer) || (number instanceof Long) || (number instanceof Short)
+                || (number instanceof Byte)) {
+            this.number(number.longValue());
+        } else if (number instanceof Double) {
+            this.number(number.doubleValue());
+        } else if (number instanceof Float) {
+            this.number(number.floatValue());
+        } else {
+            this.add(number);
+        }
+    }
+
+    private void number(long value) throws JSONException {
+        this.add(this.numberBuffer, 0, JSONNumberFormat.format(value, this.numberBuffer, 0));
+    }
+
+    private void number(double value) throws JSONException {
+        this.add(this.numberBuffer, 0, JSONNumberFormat.format(value, this.numberBuffer, 0));
+    }
+
+    private void number(float value) throws JSONException {
+        this.add(this.numberBuffer, 0, JSONNumberFormat.format(value, this.numberBuffer, 0));
+    }
+
     /**
      * Add boolean to buffer
      */
-    private void bool(boolean b) {
+    private void bool(boolean b) throws JSONException {
         this.add(b ? "true" : "false");
     }
 
     /**
      * escape characters
      */
-    private void string(Object obj) {
+    private void string(Object obj) throws JSONException {
+        this.string((obj instanceof CharSequence) ? (CharSequence) obj : obj.toString());
+    }
+
+    /**
+     * @return text as a quoted and escaped JSON string
+     */
+    static String quote(String text) {
+        try {
+            return new JSONWriter().write(text);
+        } catch (JSONException e) {
+            //a String is always serializable
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Add quoted and escaped text to buffer. The runs of characters between escapes are copied
+     * in a single call.
+     */
+    private void string(CharSequence s) throws JSONException {
         this.add('"');
 
-        CharacterIterator it = new StringCharacterIterator(obj.toString());
-
-        for (char c = it.first(); c != CharacterIterator.DONE; c = it.next()) {
-            if (c == '"') {
-                this.add("\\\"");
-            } else if (c == '\\') {
-                this.add("\\\\");
-            } else if (c == '/') {
-                this.add("\\/");
-            } else if (c == '\b') {
-                this.add("\\b");
-            } else if (c == '\f') {
-                this.add("\\f");
-            } else if (c == '\n') {
-                this.add("\\n");
-            } else if (c == '\r') {
-                this.add("\\r");
-            } else if (c == '\t') {
-                this.add("\\t");
-            } else if (Character.isISOControl(c)) {
-                this.unicode(c);
-            } else {
-                this.add(c);
+        int start = 0;
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 128) {
+                if (ESCAPES[c] == null)
+                    continue;
+            } else if (c > LAST_CONTROL) {
+                continue;
             }
+
+            if (i > start)
+                this.add(s, start, i);
+            this.escape(c);
+            start = i + 1;
         }
+        if (start < length)
+            this.add(s, start, length);
 
         this.add('"');
     }
 
+    /**
+     * Add quoted and escaped text to buffer
+     */
+    private void string(char[] chars, int offset, int length) throws JSONException {
+        this.add('"');
+
+        int start = offset;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            char c = chars[i];
+            if (c < 128) {
+                if (ESCAPES[c] == null)
+                    continue;
+            } else if (c > LAST_CONTROL) {
+                continue;
+            }
+
+            if (i > start)
+                this.add(chars, start, i - start);
+            this.escape(c);
+            start = i + 1;
+        }
+        if (start < end)
+            this.add(chars, start, end - start);
+
+        this.add('"');
+    }
+
+    private void escape(char c) throws JSONException {
+        if (c < 128)
+            this.add(ESCAPES[c]);
+        else
+            this.unicode(c);
+    }
+
     /**
      * Add object to buffer
      */
-    private void add(Object obj) {
-        this.buf.append(obj);
+    private void add(Object obj) throws JSONException {
+        this.add(String.valueOf(obj));
+    }
+
+    /**
+     * Add string to buffer
+     */
+    private void add(String s) throws JSONException {
+        try {
+            this.out.write(s, 0, s.length());
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+    }
+
+    /**
+     * Add part of a text to buffer
+     */
+    private void add(CharSequence s, int start, int end) throws JSONException {
+        try {
+            this.out.append(s, start, end);
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+    }
+
+    /**
+     * Add characters to buffer
+     */
+    private void add(char[] chars, int offset, int length) throws JSONException {
+        try {
+            this.out.write(chars, offset, length);
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
     }
 
     /**
      * Add char to buffer
      */
-    private void add(char c) {
-        this.buf.append(c);
+    private void add(char c) throws JSONException {
+        try {
+            this.out.write(c);
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
     }
 
     /**
@@ -514,7 +1096,7 @@ class JSONWriter {
      *
      * @param c character to be encoded
      */
-    private void unicode(char c) {
+    private void unicode(char c) throws JSONException {
         this.add("\\u");
 
         int n = c;
@@ -540,4 +1122,115 @@ class JSONWriter {
     public void setEnumAsBean(boolean enumAsBean) {
         this.enumAsBean = enumAsBean;
     }
+
+    /**
+     * Skip the detection of cyclic references, for object graphs known to be trees. A cycle
+     * then ends with a StackOverflowError instead of being nulled out.
+     *
+     * @param assumeAcyclic true to skip the detection of cyclic references (default=false)
+     */
+    public void setAssumeAcyclic(boolean assumeAcyclic) {
+        this.assumeAcyclic = assumeAcyclic;
+    }
+
+    /**
+     * Flushes the destination passed to write() every flushInterval elements of the arrays,
+     * Iterables, Iterators and Enumerations, for responses streamed to the client
+     *
+     * @param flushInterval number of array elements between flushes, 0 to disable (default=0)
+     */
+    public void setFlushInterval(int flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * Flushes the destination passed to write(), after an array element, once flushSize chars or
+     * bytes were written since the previous flush
+     *
+     * @param flushSize number of chars or bytes between flushes, 0 to disable (default=0)
+     */
+    public void setFlushSize(int flushSize) {
+        this.flushSize = flushSize;
+    }
+
+    /**
+     * @param fragments cache of the values marked with @JSON(cache=true), null to serialize them
+     *                  every time
+     *                  (default={@link JSONFragmentCache#getDefault()})
+     */
+    public void setFragmentCache(JSONFragmentCache fragments) {
+        this.fragments = fragments;
+    }
+
+    /**
+     * Reads the properties of the beans from their fields instead of their getters. Classes
+     * annotated with @JSONFieldAccess are always read from their fields.
+     *
+     * @param fieldAccess true to serialize the non static, non transient fields (default=false)
+     */
+    public void setFieldAccess(boolean fieldAccess) {
+        this.fieldAccess = fieldAccess;
+    }
+
+    /**
+     * Filters the properties with an automaton compiled from the include/exclude patterns
+     * instead of matching each pattern against the path of every property. The patterns given to
+     * write() must be the ones the filter was compiled from.
+     *
+     * @param pathFilter compiled patterns, or null to match the patterns one by one
+     */
+    public void setPathFilter(JSONPathFilter pathFilter) {
+        this.pathFilter = pathFilter;
+    }
+
+    /**
+     * Writes the entries of the maps ordered by the text of their keys, so equal maps always give
+     * the same JSON text whatever their iteration order, for instance to compute stable entity
+     * tags. The properties of the beans are always written in the same order.
+     *
+     * @param sortMapKeys true to sort the keys of the maps (default=false)
+     */
+    public void setSortMapKeys(boolean sortMapKeys) {
+        this.sortMapKeys = sortMapKeys;
+    }
+
+    /**
+     * @param serializers hand written serializers to use instead of the built in serialization,
+     *                    or null
+     */
+    public void setSerializers(TypeSerializerRegistry serializers) {
+        this.serializers = ((serializers != null) && !serializers.isEmpty()) ? serializers : null;
+    }
+
+    /**
+     * Orders map entries by the text written for their keys
+     */
+    private static final Comparator<Map.Entry> KEY_ORDER = new Comparator<Map.Entry>() {
+        public int compare(Map.Entry e1, Map.Entry e2) {
+            return String.valueOf(e1.getKey()).compareTo(String.valueOf(e2.getKey()));
+        }
+    };
+
+    /**
+     * Walks an Enumeration like an Iterator
+     */
+    private static final class EnumerationIterator implements Iterator {
+        private final Enumeration enumeration;
+
+        EnumerationIterator(Enumeration enumeration) {
+            this.enumeration = enumeration;
+        }
+
+        public boolean hasNext() {
+            return this.enumeration.hasMoreElements();
+        }
+
+        public Object next() {
+            return this.enumeration.nextElement();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
 }
@@ -0,0 +1,282 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.googlecode.jsonplugin;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p>Compresses a large response body on several cores, like pigz. The body is cut into blocks
+ * deflated concurrently, each one primed with the last 32 KB of the previous block as
+ * dictionary, so the compression ratio stays close to the one of a single deflater. The blocks
+ * end on a byte boundary and are written in order as a single GZIP member.</p>
+ * <p/>
+ * <p>The blocks are deflated by a pool of daemon threads, one per processor, shared by all the
+ * responses. Only a few blocks per response are queued at a time, so a response doesn't hold
+ * more than a few compressed blocks in memory and doesn't starve the other ones. The threads end
+ * after a minute without blocks to deflate and don't hold the context classloader of the web
+ * application, which can be unloaded when it is redeployed.</p>
+ * <p/>
+ * <p>Ending a block on a byte boundary needs Deflater.SYNC_FLUSH, available since Java 7. On
+ * older JVMs, and with a single processor, {@link #isEnabled()} returns false.</p>
+ */
+final class ParallelGzip {
+    private static final Log log = LogFactory.getLog(ParallelGzip.class);
+
+    static final int BLOCK_SIZE = 128 * 1024;
+
+    /**
+     * Maximum distance of a deflate back reference
+     */
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Blocks queued per response
+     */
+    private static final int WINDOW = 2 * THREADS;
+
+    private static final long IDLE_TIMEOUT = 60;
+
+    private static final Method deflateMethod;
+    private static final int SYNC_FLUSH;
+
+    static {
+        Method method = null;
+        int syncFlush = 0;
+        try {
+            method = Deflater.class.getMethod("deflate", byte[].class, int.class, int.class, int.class);
+            syncFlush = Deflater.class.getField("SYNC_FLUSH").getInt(null);
+        } catch (Exception e) {
+            log.debug("Deflater.SYNC_FLUSH is not available, parallel compression is disabled");
+            method = null;
+        }
+        deflateMethod = method;
+        SYNC_FLUSH = syncFlush;
+    }
+
+    private static ExecutorService executor;
+
+    private ParallelGzip() {
+    }
+
+    /**
+     * @return true if the JVM can end a deflate block on a byte boundary and has several processors
+     */
+    static boolean isEnabled() {
+        return (deflateMethod != null) && (THREADS > 1);
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, IDLE_TIMEOUT, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private int count;
+
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "JSON gzip " + (++count));
+                            thread.setDaemon(true);
+                            thread.setContextClassLoader(null);
+                            return thread;
+                        }
+                    });
+            //available since Java 6, the pool is only used on Java 7 and later
+            try {
+                ThreadPoolExecutor.class.getMethod("allowCoreThreadTimeOut", boolean.class).invoke(pool, true);
+            } catch (Exception e) {
+                log.debug("The idle compression threads can't be stopped", e);
+            }
+            executor = pool;
+        }
+        return executor;
+    }
+
+    /**
+     * Writes the body as a GZIP stream
+     *
+     * @param body   array holding the body
+     * @param offset start of the body
+     * @param length size of the body, must not be 0
+     * @param level  deflate level
+     * @param out    stream receiving the compressed body, not closed
+     * @throws IOException
+     */
+    static void compress(byte[] body, int offset, int length, int level, OutputStream out) throws IOException {
+        //no file name, no modification time, unknown operating system
+        out.write(new byte[]{0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff});
+
+        CRC32 crc = new CRC32();
+        int blocks = (length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+        ExecutorService executor = getExecutor();
+        try {
+            int next = 0;
+            for (int written = 0; written < blocks; written++) {
+                while ((next < blocks) && (pending.size() < WINDOW))
+                    pending.add(executor.submit(new Block(body, offset, length, next++, level)));
+
+                int start = offset + written * BLOCK_SIZE;
+                crc.update(body, start, Math.min(BLOCK_SIZE, offset + length - start));
+                out.write(pending.removeFirst().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing the response");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            IOException exception = new IOException("Unable to compress the response");
+            exception.initCause(cause);
+            throw exception;
+        } finally {
+            for (Future<byte[]> future : pending)
+                future.cancel(false);
+        }
+
+        writeInt(out, (int) crc.getValue());
+        writeInt(out, length);
+    }
+
+    /**
+     * @return true if the JVM can flush a deflater on a byte boundary, see Deflater.SYNC_FLUSH
+     */
+    static boolean canSyncFlush() {
+        return deflateMethod != null;
+    }
+
+    /**
+     * Deflates the pending input of the deflater with Deflater.SYNC_FLUSH, available since
+     * Java 7, so the output ends on a byte boundary
+     *
+     * @return number of bytes written to the buffer, the flush isn't complete if it is full
+     * @throws IOException
+     */
+    static int syncFlush(Deflater deflater, byte[] buffer, int offset, int length) throws IOException {
+        try {
+            return (Integer) deflateMethod.invoke(deflater, buffer, offset, length, SYNC_FLUSH);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            IOException exception = new IOException("Unable to flush the deflater");
+            exception.initCause(cause);
+            throw exception;
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >> 8) & 0xff);
+        out.write((value >> 16) & 0xff);
+        out.write((value >> 24) & 0xff);
+    }
+
+    /**
+     * Deflates one block, the last one ends the deflate stream
+     */
+    private static final class Block implements Callable<byte[]> {
+        private final byte[] body;
+        private final int offset;
+        private final int start;
+        private final int end;
+        private final boolean last;
+        private final int level;
+
+        Block(byte[] body, int offset, int length, int index, int level) {
+            this.body = body;
+            this.offset = offset;
+            this.start = offset + index * BLOCK_SIZE;
+            this.end = Math.min(this.start + BLOCK_SIZE, offset + length);
+            this.last = this.end == offset + length;
+            this.level = level;
+        }
+
+        public byte[] call() throws Exception {
+            Deflater deflater = new Deflater(this.level, true);
+            try {
+                if (this.start > this.offset) {
+                    int size = Math.min(DICTIONARY_SIZE, this.start - this.offset);
+                    deflater.setDictionary(this.body, this.start - size, size);
+                }
+                deflater.setInput(this.body, this.start, this.end - this.start);
+
+                byte[] buffer = new byte[(this.end - this.start) / 2 + 64];
+                int count = 0;
+                if (this.last) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        if (count == buffer.length)
+                            buffer = grow(buffer);
+                        count += deflater.deflate(buffer, count, buffer.length - count);
+                    }
+                } else {
+                    //a full buffer means the flush is not complete
+                    int n;
+                    do {
+                        if (count == buffer.length)
+                            buffer = grow(buffer);
+                        n = syncFlush(deflater, buffer, count, buffer.length - count);
+                        count += n;
+                    } while (count == buffer.length);
+                }
+
+                byte[] compressed = new byte[count];
+                System.arraycopy(buffer, 0, compressed, 0, count);
+                return compressed;
+            } finally {
+                deflater.end();
+            }
+        }
+
+        private static byte[] grow(byte[] buffer) {
+            byte[] grown = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, grown, 0, buffer.length);
+            return grown;
+        }
+    }
+}
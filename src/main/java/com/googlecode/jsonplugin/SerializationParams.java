@@ -3,9 +3,21 @@ package com.googlecode.jsonplugin;
 import com.opensymphony.xwork2.util.TextUtils;
 
 import javax.servlet.http.HttpServletResponse;
+import java.util.zip.Deflater;
 
 public class SerializationParams {
     private static final String DEFAULT_CONTENT_TYPE = "application/json";
+    static final int DEFAULT_GZIP_BUFFER_SIZE = 8192;
+
+    /**
+     * Compressing a body smaller than a network packet saves nothing
+     */
+    static final int DEFAULT_GZIP_MIN_SIZE = 1024;
+
+    /**
+     * Below a few megabytes, a single core compresses faster than the blocks can be dispatched
+     */
+    static final int DEFAULT_GZIP_PARALLEL_MIN_SIZE = 4 * 1024 * 1024;
 
     private final HttpServletResponse response;
     private final String encoding;
@@ -20,6 +32,12 @@ public class SerializationParams {
     private String contentType = DEFAULT_CONTENT_TYPE;
     private String wrapPrefix;
     private String wrapSuffix;
+    private int gzipLevel = Deflater.DEFAULT_COMPRESSION;
+    private int gzipBufferSize = DEFAULT_GZIP_BUFFER_SIZE;
+    private int gzipMinSize = DEFAULT_GZIP_MIN_SIZE;
+    private int gzipParallelMinSize = DEFAULT_GZIP_PARALLEL_MIN_SIZE;
+    private CompressionPolicy compressionPolicy;
+    private String compressionKey;
 
     public SerializationParams(HttpServletResponse response, String encoding, boolean wrapWithComments,
                                String serializedJSON, boolean smd, boolean gzip, boolean noCache, int statusCode,
@@ -95,4 +113,66 @@ public class SerializationParams {
     public String getContentType() {
         return contentType;
     }
+
+    public int getGzipLevel() {
+        return gzipLevel;
+    }
+
+    /**
+     * @param gzipLevel deflate level from 0 to 9, or -1 for the default level
+     */
+    public void setGzipLevel(int gzipLevel) {
+        this.gzipLevel = gzipLevel;
+    }
+
+    public int getGzipBufferSize() {
+        return gzipBufferSize;
+    }
+
+    /**
+     * @param gzipBufferSize size of the buffer receiving the compressed bytes
+     */
+    public void setGzipBufferSize(int gzipBufferSize) {
+        this.gzipBufferSize = gzipBufferSize;
+    }
+
+    public int getGzipMinSize() {
+        return gzipMinSize;
+    }
+
+    /**
+     * @param gzipMinSize bodies smaller than this number of bytes are not compressed
+     */
+    public void setGzipMinSize(int gzipMinSize) {
+        this.gzipMinSize = gzipMinSize;
+    }
+
+    public int getGzipParallelMinSize() {
+        return gzipParallelMinSize;
+    }
+
+    /**
+     * @param gzipParallelMinSize bodies of at least this number of bytes are compressed on
+     *                            several cores, 0 to always use a single core
+     */
+    public void setGzipParallelMinSize(int gzipParallelMinSize) {
+        this.gzipParallelMinSize = gzipParallelMinSize;
+    }
+
+    public CompressionPolicy getCompressionPolicy() {
+        return compressionPolicy;
+    }
+
+    public String getCompressionKey() {
+        return compressionKey;
+    }
+
+    /**
+     * @param compressionPolicy chooses the deflate level instead of gzipLevel, or null
+     * @param compressionKey    identifies the kind of response for the policy
+     */
+    public void setCompressionPolicy(CompressionPolicy compressionPolicy, String compressionKey) {
+        this.compressionPolicy = compressionPolicy;
+        this.compressionKey = compressionKey;
+    }
 }
@@ -0,0 +1,95 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.googlecode.jsonplugin;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * <p>Hand written serialization of a type, used by {@link JSONWriter} instead of the reflection
+ * based bean serialization. Serializers are declared in struts.xml and apply to the subclasses
+ * and implementations of their type too:</p>
+ * <p/>
+ * <pre>
+ * &lt;bean type="com.googlecode.jsonplugin.TypeSerializer" name="money"
+ *       class="com.example.MoneySerializer"/&gt;
+ * </pre>
+ * <p/>
+ * <p>Implementations are shared between threads and must be thread safe.</p>
+ */
+public interface TypeSerializer {
+
+    /**
+     * @return the class or interface handled by this serializer
+     */
+    Class getType();
+
+    /**
+     * Writes a single JSON value, like an object or an array, for the given instance
+     *
+     * @param value instance of the type, never null
+     * @param out   destination of the JSON text
+     * @throws IOException   when the output can't be written to
+     * @throws JSONException when the value can't be serialized
+     */
+    void serialize(Object value, Output out) throws IOException, JSONException;
+
+    /**
+     * <p>Destination of a {@link TypeSerializer}. The text goes straight to the buffer of the
+     * response, which holds either chars or bytes already encoded in the charset of the
+     * response.</p>
+     */
+    interface Output {
+
+        /**
+         * @return the buffer the JSON text is written to, for structural text like "{" or
+         *         keys known to need no escaping. It must not be closed.
+         */
+        Writer getWriter();
+
+        /**
+         * Writes text that was encoded in advance, like the keys of an object. Copying the
+         * bytes avoids encoding the text again for each value when the output is UTF-8.
+         *
+         * @param chars the text, written as is
+         * @param utf8  the same text encoded in UTF-8
+         */
+        void writeRaw(char[] chars, byte[] utf8) throws JSONException;
+
+        /**
+         * Writes a quoted and escaped JSON string
+         */
+        void writeString(CharSequence value) throws JSONException;
+
+        void writeNumber(long value) throws JSONException;
+
+        void writeNumber(double value) throws JSONException;
+
+        void writeBoolean(boolean value) throws JSONException;
+
+        /**
+         * Writes any value with the usual rules of the writer, including null, the registered
+         * serializers and the detection of cyclic references. The include/exclude patterns see
+         * the properties of the value as properties of the object being serialized.
+         */
+        void writeValue(Object value) throws JSONException;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.googlecode.jsonplugin;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.opensymphony.xwork2.inject.Container;
+import com.opensymphony.xwork2.inject.Inject;
+
+/**
+ * <p>The {@link TypeSerializer}s known to {@link JSONWriter}. The serializer of a class is the one
+ * registered for the nearest superclass, or else for the first interface found walking up the
+ * hierarchy. Lookups are cached per class.</p>
+ * <p/>
+ * <p>A single registry is created by Struts and holds the serializers declared as beans of type
+ * TypeSerializer.</p>
+ */
+@SuppressWarnings("unchecked")
+public class TypeSerializerRegistry {
+    /**
+     * Marks the classes without a serializer in the cache
+     */
+    private static final TypeSerializer NONE = new TypeSerializer() {
+        public Class getType() {
+            return Object.class;
+        }
+
+        public void serialize(Object value, Output out) {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    private volatile Map<Class, TypeSerializer> serializers = new HashMap<Class, TypeSerializer>();
+    private final ConcurrentMap<Class, TypeSerializer> cache = new ConcurrentHashMap<Class, TypeSerializer>();
+
+    public TypeSerializerRegistry() {
+    }
+
+    public TypeSerializerRegistry(Collection<TypeSerializer> serializers) {
+        for (TypeSerializer serializer : serializers)
+            this.register(serializer);
+    }
+
+    /**
+     * Registers the beans of type TypeSerializer declared in the Struts configuration
+     */
+    @Inject
+    public void setContainer(Container container) {
+        for (String name : container.getInstanceNames(TypeSerializer.class))
+            this.register(container.getInstance(TypeSerializer.class, name));
+    }
+
+    /**
+     * Adds a serializer, replacing the one registered for the same type
+     */
+    public synchronized void register(TypeSerializer serializer) {
+        Map<Class, TypeSerializer> serializers = new HashMap<Class, TypeSerializer>(this.serializers);
+        serializers.put(serializer.getType(), serializer);
+        this.serializers = serializers;
+        this.cache.clear();
+    }
+
+    /**
+     * @return true if no serializer is registered
+     */
+    public boolean isEmpty() {
+        return this.serializers.isEmpty();
+    }
+
+    /**
+     * @param clazz concrete class of a value
+     * @return serializer for the instances of clazz, or null to use the built in serialization
+     */
+    public TypeSerializer getSerializer(Class clazz) {
+        TypeSerializer serializer = this.cache.get(clazz);
+        if (serializer == null) {
+            serializer = this.resolve(clazz);
+            this.cache.put(clazz, serializer);
+        }
+        return (serializer != NONE) ? serializer : null;
+    }
+
+    private TypeSerializer resolve(Class clazz) {
+        Map<Class, TypeSerializer> serializers = this.serializers;
+
+        for (Class c = clazz; c != null; c = c.getSuperclass()) {
+            TypeSerializer serializer = serializers.get(c);
+            if (serializer != null)
+                return serializer;
+        }
+
+        //interfaces, breadth first from the class up
+        LinkedList<Class> queue = new LinkedList<Class>();
+        for (Class c = clazz; c != null; c = c.getSuperclass())
+            queue.add(c);
+        List<Class> visited = new ArrayList<Class>();
+        while (!queue.isEmpty()) {
+            Class c = queue.removeFirst();
+            for (Class iface : c.getInterfaces()) {
+                if (visited.contains(iface))
+                    continue;
+                visited.add(iface);
+                TypeSerializer serializer = serializers.get(iface);
+                if (serializer != null)
+                    return serializer;
+                queue.add(iface);
+            }
+        }
+
+        return NONE;
+    }
+}
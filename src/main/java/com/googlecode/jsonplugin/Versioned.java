@@ -0,0 +1,44 @@
+/*
+ * $Id$
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.googlecode.jsonplugin;
+
+/**
+ * <p>Value identified by a version, like reference data shared by many responses. The version
+ * identifies the content among the instances of the class: two instances of the same class and
+ * version must serialize to the same text, and a change of content must change the version.</p>
+ * <p/>
+ * <p>When the value of a property marked with @JSON(cache=true) is versioned, its cached JSON
+ * text is shared by all the instances of the class with the same version, instead of being
+ * cached per instance. Implementing this interface alone doesn't cache anything.</p>
+ * <p/>
+ * <p>When the root object of a {@link JSONResult} is versioned, the version is also its entity
+ * tag, so a client holding the current version gets 304 Not Modified without the root object
+ * being serialized. A {@link java.util.Date} version is sent as Last-Modified as well.</p>
+ *
+ * @see JSONFragmentCache
+ */
+public interface Versioned {
+
+    /**
+     * @return key of the content, compared with equals(), or null if unknown
+     */
+    Object getVersion();
+}
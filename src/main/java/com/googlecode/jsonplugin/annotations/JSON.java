@@ -5,7 +5,7 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
-@Target(ElementType.METHOD)
+@Target({ElementType.METHOD, ElementType.FIELD})
 @Retention(RetentionPolicy.RUNTIME)
 public @interface JSON {
     String name() default "";
@@ -15,4 +15,10 @@ public @interface JSON {
     boolean deserialize() default true;
 
     String format() default "";
+
+    /**
+     * Cache the JSON text of the returned value, which must not change while it is returned.
+     * Values holding cyclic references are serialized on each use.
+     */
+    boolean cache() default false;
 }
@@ -0,0 +1,101 @@
+package com.googlecode.jsonplugin;
+
+import junit.framework.TestCase;
+
+public class AdaptiveCompressionPolicyTest extends TestCase {
+
+    public void testLevelFollowsTheLoad() throws Exception {
+        assertEquals(9, new Policy(0.1).getLevel("/a", 10000));
+        assertEquals(6, new Policy(0.1).getLevel("/a", -1));
+        assertEquals(6, new Policy(0.1).getLevel("/a", 2 * 1024 * 1024));
+        assertEquals(6, new Policy(0.4).getLevel("/a", 10000));
+        assertEquals(3, new Policy(0.7).getLevel("/a", 10000));
+        assertEquals(1, new Policy(0.95).getLevel("/a", 10000));
+        //unknown load
+        assertEquals(6, new Policy(-1).getLevel("/a", 10000));
+    }
+
+    public void testRatio() throws Exception {
+        Policy policy = new Policy(0.95);
+        assertEquals(-1.0, policy.getCompressionRatio("/a"));
+
+        //moving average, starting from 30%
+        policy.compressed("/a", 1, 1000, 500);
+        assertEquals(0.35, policy.getCompressionRatio("/a"));
+        assertEquals(1, policy.getLevel("/a", 10000));
+        policy.compressed("/a", 1, 1000, 900);
+        assertEquals(0.487, policy.getCompressionRatio("/a"));
+        policy.compressed("/a", 1, 1000, 1000);
+        assertEquals(0.615, policy.getCompressionRatio("/a"));
+        assertEquals(CompressionPolicy.NO_COMPRESSION, policy.getLevel("/a", 10000));
+        assertEquals(1, policy.getLevel("/b", 10000));
+    }
+
+    public void testRatiosAreBounded() throws Exception {
+        Policy policy = new Policy(0.95);
+        for (int i = 0; i < 1024; i++)
+            policy.compressed("/a" + i, 1, 1000, 500);
+        assertEquals(0.35, policy.getCompressionRatio("/a1023"));
+
+        policy.compressed("/b", 1, 1000, 500);
+        assertEquals(-1.0, policy.getCompressionRatio("/b"));
+        assertEquals(1, policy.getLevel("/b", 10000));
+    }
+
+    public void testIncompressible() throws Exception {
+        Policy policy = new Policy(0.1);
+        //a single response doesn't disable the compression
+        policy.compressed("/image", 9, 1000, 990);
+        assertEquals(9, policy.getLevel("/image", 10000));
+
+        for (int i = 0; i < 20; i++)
+            policy.compressed("/image", 9, 1000, 990);
+        assertEquals(CompressionPolicy.NO_COMPRESSION, policy.getLevel("/image", 10000));
+        assertEquals(9, policy.getLevel("/list", 10000));
+
+        //one in 16 of the responses is still compressed to follow the ratio
+        int level = CompressionPolicy.NO_COMPRESSION;
+        int count = 1;
+        while ((level == CompressionPolicy.NO_COMPRESSION) && (count < 32)) {
+            level = policy.getLevel("/image", 10000);
+            count++;
+        }
+        assertEquals(16, count);
+        assertEquals(1, level);
+        policy.compressed("/image", level, 1000, 100);
+        assertEquals(9, policy.getLevel("/image", 10000));
+    }
+
+    public void testLevelCount() throws Exception {
+        Policy policy = new Policy(0.7);
+        policy.compressed("/a", policy.getLevel("/a", 10000), 1000, 100);
+        policy.compressed("/a", policy.getLevel("/a", 10000), 1000, 100);
+        //not compressed, after a 304 Not Modified for instance
+        policy.getLevel("/a", 10000);
+        for (int i = 0; i < 20; i++)
+            policy.compressed("/b", 3, 1000, 950);
+        policy.getLevel("/b", 10000);
+
+        assertEquals(22, policy.getLevelCount(3));
+        assertEquals(1, policy.getLevelCount(CompressionPolicy.NO_COMPRESSION));
+        assertEquals(0, policy.getLevelCount(9));
+        assertEquals(0.7, policy.getCpuLoad());
+    }
+
+    public void testReadCpuLoad() throws Exception {
+        double load = new AdaptiveCompressionPolicy().readCpuLoad();
+        assertTrue(load <= 1);
+    }
+
+    private static class Policy extends AdaptiveCompressionPolicy {
+        private final double load;
+
+        Policy(double load) {
+            this.load = load;
+        }
+
+        protected double readCpuLoad() {
+            return load;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.googlecode.jsonplugin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import com.googlecode.jsonplugin.annotations.JSON;
+import com.googlecode.jsonplugin.annotations.JSONFieldAccess;
+
+public class JSONBeanInfoTest extends TestCase {
+
+    public void testMetadataIsCachedPerClass() throws Exception {
+        JSONBeanInfo info = JSONBeanInfo.getBeanInfo(Bean.class, false);
+
+        assertSame(info, JSONBeanInfo.getBeanInfo(Bean.class, false));
+        assertNotSame(info, JSONBeanInfo.getBeanInfo(Bean.class, true));
+    }
+
+    public void testAnnotationsAreResolved() throws Exception {
+        JSONProperty[] props = JSONBeanInfo.getBeanInfo(TestAction.class, true).getProperties();
+
+        JSONProperty bar = find(props, "bar");
+        assertNotNull(bar);
+        assertFalse(bar.isSerialize());
+
+        JSONProperty date2 = find(props, "date2");
+        assertNotNull(date2);
+        assertTrue(date2.isSerialize());
+        assertEquals("dd/MM/yy", date2.getFormat());
+
+        assertNull(find(props, "date").getFormat());
+        assertNull(find(props, "class"));
+    }
+
+    public void testPropertyValue() throws Exception {
+        Bean bean = new Bean();
+        bean.setStringField("str");
+        bean.setIntField(10);
+
+        JSONProperty[] props = JSONBeanInfo.getBeanInfo(Bean.class, false).getProperties();
+        assertEquals("str", find(props, "stringField").getValue(bean));
+        assertEquals(10, find(props, "intField").getValue(bean));
+    }
+
+    public void testNameToken() throws Exception {
+        JSONProperty prop = find(JSONBeanInfo.getBeanInfo(Bean.class, false).getProperties(), "stringField");
+        assertEquals(",\"stringField\":", new String(prop.getNameToken()));
+        assertEquals(",\"stringField\":", new String(prop.getNameBytes(), "UTF-8"));
+    }
+
+    public void testPlans() throws Exception {
+        JSONBeanInfo info = JSONBeanInfo.getBeanInfo(FieldBean.class, false, true);
+        JSONBeanInfo.Plan plan = info.getPlan(null, JSONPathFilter.ROOT);
+        assertEquals(2, plan.getProperties().length);
+        assertNull(plan.getStates());
+
+        List<Pattern> exclude = new ArrayList<Pattern>();
+        exclude.add(Pattern.compile("id"));
+        JSONPathFilter filter = JSONPathFilter.compile(exclude, null);
+        plan = info.getPlan(filter, JSONPathFilter.ROOT);
+        assertSame(plan, info.getPlan(filter, JSONPathFilter.ROOT));
+        assertEquals(1, plan.getProperties().length);
+        assertEquals("label", plan.getProperties()[0].getName());
+        assertEquals(filter.property(JSONPathFilter.ROOT, "label"), plan.getStates()[0]);
+
+        //the plans are held by the filter
+        assertEquals(1, filter.getPlans().size());
+        JSONPathFilter other = JSONPathFilter.compile(exclude, null);
+        assertNotSame(plan, info.getPlan(other, JSONPathFilter.ROOT));
+        assertEquals(1, other.getPlans().size());
+    }
+
+    public void testFieldAccess() throws Exception {
+        JSONProperty[] props = JSONBeanInfo.getBeanInfo(FieldBean.class, false, true).getProperties();
+        assertEquals(3, props.length);
+        assertEquals("id", props[0].getName());
+        assertEquals("label", props[1].getName());
+        assertFalse(props[2].isSerialize());
+        assertEquals(7L, props[0].getValue(new FieldBean()));
+
+        JSONWriter writer = new JSONWriter();
+        writer.setFieldAccess(true);
+        assertEquals("{\"id\":7,\"label\":\"a\"}", writer.write(new FieldBean()));
+        //getters are used unless requested
+        assertEquals("{\"id\":1}", new JSONWriter().write(new FieldBean()));
+    }
+
+    public void testFieldAccessAnnotation() throws Exception {
+        assertSame(JSONBeanInfo.getBeanInfo(AnnotatedBean.class, false),
+                JSONBeanInfo.getBeanInfo(AnnotatedBean.class, false));
+        //only the declared fields of the root object
+        assertEquals("{\"size\":2}", new JSONWriter().write(new AnnotatedBean()));
+        assertEquals("[{\"id\":7,\"label\":\"a\",\"size\":2}]",
+                new JSONWriter().write(new Object[]{new AnnotatedBean()}));
+    }
+
+    private JSONProperty find(JSONProperty[] props, String name) {
+        for (JSONProperty prop : props) {
+            if (prop.getName().equals(name))
+                return prop;
+        }
+        return null;
+    }
+
+    public static class FieldBean {
+        static int count = 5;
+
+        public final long id = 7;
+        @JSON(name = "label")
+        String text = "a";
+        @JSON(serialize = false)
+        private int hidden = 3;
+        private transient Object cache = new Object();
+
+        public long getId() {
+            return 1;
+        }
+    }
+
+    @JSONFieldAccess
+    public static class AnnotatedBean extends FieldBean {
+        private final int size = 2;
+    }
+}
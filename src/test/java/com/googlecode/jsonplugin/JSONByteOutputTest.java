@@ -0,0 +1,80 @@
+package com.googlecode.jsonplugin;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+public class JSONByteOutputTest extends TestCase {
+    private static final String[] TEXTS = {
+            "", "plain ascii", "caf\u00e9 \u20ac", "\ud83d\ude00 smile", "lone \ud83d high", "lone \ude00 low",
+            "end \ud83d", "\u0000\u007f\u0080\u07ff\u0800\uffff"
+    };
+
+    public void testUTF8MatchesStringEncoding() throws Exception {
+        assertEncoding("UTF-8");
+    }
+
+    public void testISO88591MatchesStringEncoding() throws Exception {
+        assertEncoding("ISO-8859-1");
+    }
+
+    public void testStreamsThroughSmallBuffer() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+            text.append("a\u00e9\u20ac\ud83d\ude00");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JSONByteOutput output = new JSONByteOutput(out, "UTF-8", 16);
+        output.write(text.toString());
+        output.flush();
+
+        assertTrue(Arrays.equals(text.toString().getBytes("UTF-8"), out.toByteArray()));
+    }
+
+    public void testLoneHighSurrogateAtChunkBoundary() throws Exception {
+        for (int size = 4; size <= 24; size++) {
+            for (int prefix = 0; prefix <= 24; prefix++) {
+                StringBuilder text = new StringBuilder();
+                for (int i = 0; i < prefix; i++)
+                    text.append('a');
+                text.append('\ud800');
+                for (int i = 0; i < 20; i++)
+                    text.append('\u4e2d');
+                byte[] expected = text.toString().getBytes("UTF-8");
+
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                JSONByteOutput output = new JSONByteOutput(out, "UTF-8", size);
+                output.write(text.toString());
+                output.flush();
+                assertTrue(Arrays.equals(expected, out.toByteArray()));
+
+                out = new ByteArrayOutputStream();
+                output = new JSONByteOutput(out, "UTF-8", size);
+                output.write(text.toString().toCharArray());
+                output.flush();
+                assertTrue(Arrays.equals(expected, out.toByteArray()));
+            }
+        }
+    }
+
+    public void testSupportedEncodings() {
+        assertTrue(JSONByteOutput.isSupported("utf-8"));
+        assertTrue(JSONByteOutput.isSupported("ISO-8859-1"));
+        assertFalse(JSONByteOutput.isSupported("UTF-16"));
+        assertFalse(JSONByteOutput.isSupported("no-such-encoding"));
+    }
+
+    private void assertEncoding(String encoding) throws Exception {
+        for (String text : TEXTS) {
+            JSONByteOutput output = new JSONByteOutput(encoding, new byte[4]);
+            output.write(text);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            output.writeTo(out);
+            byte[] expected = text.getBytes(encoding);
+            assertEquals(expected.length, output.size());
+            assertTrue(text, Arrays.equals(expected, out.toByteArray()));
+        }
+    }
+}
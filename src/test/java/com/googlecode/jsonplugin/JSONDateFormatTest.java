@@ -0,0 +1,67 @@
+package com.googlecode.jsonplugin;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+public class JSONDateFormatTest extends TestCase {
+
+    public void testInstancesAreShared() throws Exception {
+        assertSame(JSONDateFormat.getInstance("dd/MM/yy"), JSONDateFormat.getInstance("dd/MM/yy"));
+        assertSame(JSONDateFormat.getDefault(), JSONDateFormat.getInstance(JSONUtil.RFC3339_FORMAT));
+    }
+
+    public void testFastPathMatchesSimpleDateFormat() throws Exception {
+        JSONDateFormat format = JSONDateFormat.getDefault();
+        char[] buf = new char[JSONDateFormat.MAX_CHARS];
+        Random random = new Random(42);
+        String[] zones = {"UTC", "America/New_York", "Asia/Kolkata", "Australia/Lord_Howe"};
+
+        for (String id : zones) {
+            TimeZone zone = TimeZone.getTimeZone(id);
+            SimpleDateFormat expected = new SimpleDateFormat(JSONUtil.RFC3339_FORMAT);
+            expected.setTimeZone(zone);
+            for (int i = 0; i < 10000; i++) {
+                long millis = random.nextLong() % 100000000000000L;
+                int length = format.formatRFC3339(millis, zone, buf);
+                String actual = (length < 0) ? format.format(new Date(millis), zone) : new String(buf, 0,
+                        length);
+                assertEquals(expected.format(new Date(millis)), actual);
+            }
+        }
+    }
+
+    public void testFastPathOnlyForDefaultPattern() throws Exception {
+        char[] buf = new char[JSONDateFormat.MAX_CHARS];
+        assertEquals(-1, JSONDateFormat.getInstance("dd/MM/yy").formatRFC3339(0, TimeZone
+                .getTimeZone("UTC"), buf));
+        //Julian calendar dates are left to SimpleDateFormat
+        assertEquals(-1, JSONDateFormat.getDefault().formatRFC3339(-13000000000000L,
+                TimeZone.getTimeZone("UTC"), buf));
+    }
+
+    public void testParse() throws Exception {
+        Date date = JSONDateFormat.getInstance("dd/MM/yy").parse("12/12/12");
+        assertEquals(new SimpleDateFormat("dd/MM/yy").parse("12/12/12"), date);
+    }
+
+    public void testTemporal() throws Exception {
+        Class localDate;
+        try {
+            localDate = Class.forName("java.time.LocalDate");
+        } catch (ClassNotFoundException e) {
+            //no java.time before Java 8
+            assertFalse(JSONDateFormat.isTemporal(String.class));
+            return;
+        }
+
+        Object date = JSONDateFormat.parseTemporal(localDate, "2012-12-21", null);
+        assertTrue(JSONDateFormat.isTemporal(date));
+        assertEquals("2012-12-21", date.toString());
+        assertEquals("21/12/12", JSONDateFormat.getInstance("dd/MM/yy").formatTemporal(date));
+        assertEquals(date, JSONDateFormat.parseTemporal(localDate, "21/12/12", "dd/MM/yy"));
+    }
+}
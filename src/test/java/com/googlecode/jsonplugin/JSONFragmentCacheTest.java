@@ -0,0 +1,162 @@
+package com.googlecode.jsonplugin;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+import com.googlecode.jsonplugin.annotations.JSON;
+
+public class JSONFragmentCacheTest extends TestCase {
+
+    public void testVersionedValuesAreCached() throws Exception {
+        JSONFragmentCache cache = new JSONFragmentCache(16, 1024);
+        JSONWriter writer = new JSONWriter();
+        writer.setFragmentCache(cache);
+
+        assertEquals("{\"catalog\":{\"name\":\"a\",\"version\":1}}", writer.write(new Shelf(new Catalog(1, "a"))));
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        //same version, another instance: the cached text is used
+        assertEquals("{\"catalog\":{\"name\":\"a\",\"version\":1}}", writer.write(new Shelf(new Catalog(1, "b"))));
+        assertEquals(1, cache.getHits());
+
+        //neither the root object nor the values of other properties are cached
+        assertEquals("{\"name\":\"c\",\"version\":1}", writer.write(new Catalog(1, "c")));
+        assertEquals("[{\"name\":\"d\",\"version\":2}]", writer.write(new Object[]{new Catalog(2, "d")}));
+        assertEquals(1, cache.size());
+    }
+
+    public void testAnnotatedPropertiesAreCachedByIdentity() throws Exception {
+        JSONFragmentCache cache = new JSONFragmentCache(16, 1024);
+        JSONWriter writer = new JSONWriter();
+        writer.setFragmentCache(cache);
+
+        Holder holder = new Holder();
+        holder.countries = new ArrayList<String>(Arrays.asList("fr", "\u00e9"));
+        String json = writer.write(holder);
+        assertEquals("{\"countries\":[\"fr\",\"\u00e9\"]}", json);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JSONByteOutput out = new JSONByteOutput(bytes, "UTF-8", 16);
+        writer.write(holder, out, null, null, false);
+        out.flush();
+        assertEquals(json, new String(bytes.toByteArray(), "UTF-8"));
+        assertEquals(1, cache.getHits());
+
+        //another list is another fragment
+        holder.countries = new ArrayList<String>(holder.countries);
+        writer.write(holder);
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.size());
+    }
+
+    public void testFilterIsPartOfTheKey() throws Exception {
+        JSONFragmentCache cache = new JSONFragmentCache(16, 1024);
+        List<Pattern> exclude = new ArrayList<Pattern>();
+        exclude.add(Pattern.compile("catalog\\.name"));
+        Shelf root = new Shelf(new Catalog(1, "a"));
+
+        JSONWriter writer = new JSONWriter();
+        writer.setFragmentCache(cache);
+        assertEquals("{\"catalog\":{\"name\":\"a\",\"version\":1}}", writer.write(root));
+
+        writer.setPathFilter(JSONPatternCache.getPathFilter(exclude, null));
+        assertEquals("{\"catalog\":{\"version\":1}}", writer.write(root, exclude, null, false));
+        assertEquals(2, cache.size());
+
+        //not cached without a compiled filter
+        writer.setPathFilter(null);
+        assertEquals("{\"catalog\":{\"version\":1}}", writer.write(root, exclude, null, false));
+        assertEquals(2, cache.getMisses());
+    }
+
+    public void testEviction() throws Exception {
+        JSONFragmentCache cache = new JSONFragmentCache(2, 1024);
+        JSONWriter writer = new JSONWriter();
+        writer.setFragmentCache(cache);
+        for (int i = 0; i < 3; i++)
+            writer.write(new Shelf(new Catalog(i, "a")));
+        assertEquals(2, cache.size());
+
+        cache = new JSONFragmentCache(16, 50);
+        writer.setFragmentCache(cache);
+        for (int i = 0; i < 3; i++)
+            writer.write(new Shelf(new Catalog(i, "a")));
+        //24 chars each
+        assertEquals(2, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    public void testCyclicValuesAreNotCached() throws Exception {
+        JSONFragmentCache cache = new JSONFragmentCache(16, 1024);
+        JSONWriter writer = new JSONWriter();
+        writer.setFragmentCache(cache);
+
+        Node first = new Node();
+        Node second = new Node();
+        first.children = new ArrayList<Object>(Arrays.asList(first, "x"));
+        second.children = first.children;
+
+        //the reference to first is only a cycle when first is the root
+        assertEquals("{\"children\":[null,\"x\"]}", writer.write(first));
+        assertEquals(0, cache.size());
+        assertEquals("{\"children\":[{\"children\":null},\"x\"]}", writer.write(second));
+        assertEquals(0, cache.size());
+        assertEquals("{\"children\":[null,\"x\"]}", writer.write(first));
+    }
+
+    public static class Catalog implements Versioned {
+        private final int version;
+        private final String name;
+
+        Catalog(int version, String name) {
+            this.version = version;
+            this.name = name;
+        }
+
+        public Object getVersion() {
+            return version;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    public static class Shelf {
+        private final Catalog catalog;
+
+        Shelf(Catalog catalog) {
+            this.catalog = catalog;
+        }
+
+        @JSON(cache = true)
+        public Catalog getCatalog() {
+            return catalog;
+        }
+    }
+
+    public static class Node {
+        private List<Object> children;
+
+        @JSON(cache = true)
+        public List<Object> getChildren() {
+            return children;
+        }
+    }
+
+    public static class Holder {
+        private List<String> countries;
+
+        @JSON(cache = true)
+        public List<String> getCountries() {
+            return countries;
+        }
+    }
+}
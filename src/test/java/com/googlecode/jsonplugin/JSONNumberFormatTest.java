@@ -0,0 +1,80 @@
+package com.googlecode.jsonplugin;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class JSONNumberFormatTest extends TestCase {
+    private char[] buf = new char[JSONNumberFormat.MAX_CHARS];
+
+    public void testLongs() throws Exception {
+        long[] values = {0, 7, -7, 10, 1234567890123L, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (long value : values) {
+            assertEquals(Long.toString(value), format(value));
+        }
+    }
+
+    public void testDoubleLayout() throws Exception {
+        assertEquals("0.0", format(0.0));
+        assertEquals("-0.0", format(-0.0));
+        assertEquals("100.0", format(100.0));
+        assertEquals("-1.5", format(-1.5));
+        assertEquals("0.001", format(0.001));
+        assertEquals("1.0E-4", format(0.0001));
+        assertEquals("9999999.0", format(9999999.0));
+        assertEquals("1.0E7", format(1.0E7));
+        assertEquals("1.0E300", format(1.0E300));
+        assertEquals("1.7976931348623157E308", format(Double.MAX_VALUE));
+        assertEquals("4.9E-324", format(Double.MIN_VALUE));
+        assertEquals("NaN", format(Double.NaN));
+        assertEquals("-Infinity", format(Double.NEGATIVE_INFINITY));
+    }
+
+    public void testShortestDoubles() throws Exception {
+        //older JDKs print 9.999999999999999E22 and 2.82879384806159008E17
+        assertEquals("1.0E23", format(1.0E23));
+        assertEquals("2.82879384806159E17", format(2.82879384806159E17));
+        assertEquals("0.3", format(0.3));
+        assertEquals("0.30000000000000004", format(0.1 + 0.2));
+    }
+
+    public void testDoublesReadBack() throws Exception {
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            double value = Double.longBitsToDouble(random.nextLong());
+            if (!Double.isNaN(value)) {
+                String s = format(value);
+                assertEquals(s, value, Double.parseDouble(s));
+                assertTrue(s, s.length() <= Double.toString(value).length());
+            }
+        }
+    }
+
+    public void testFloats() throws Exception {
+        assertEquals("1.1", format(1.1f));
+        assertEquals("100.0", format(100f));
+        assertEquals("3.4028235E38", format(Float.MAX_VALUE));
+        assertEquals("1.4E-45", format(Float.MIN_VALUE));
+
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            float value = Float.intBitsToFloat(random.nextInt());
+            if (!Float.isNaN(value)) {
+                String s = format(value);
+                assertEquals(s, value, Float.parseFloat(s));
+            }
+        }
+    }
+
+    private String format(long value) {
+        return new String(buf, 0, JSONNumberFormat.format(value, buf, 0));
+    }
+
+    private String format(double value) {
+        return new String(buf, 0, JSONNumberFormat.format(value, buf, 0));
+    }
+
+    private String format(float value) {
+        return new String(buf, 0, JSONNumberFormat.format(value, buf, 0));
+    }
+}
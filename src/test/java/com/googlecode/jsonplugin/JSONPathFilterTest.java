@@ -0,0 +1,98 @@
+package com.googlecode.jsonplugin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+public class JSONPathFilterTest extends TestCase {
+
+    public void testMatchesLikePatterns() throws Exception {
+        String[] regexes = {"list\\[\\d+\\]\\.name", "^map\\.a.*", "bean(\\.\\w+)?", "(?:x|y)+z?$",
+                "[^.]*\\.id", "a{2,3}", "[a-c-]\\[1\\]", ".*\\.pass\\u0077ord"};
+        String[][] paths = {
+                {"list", "[0]", ".name"},
+                {"list", "[12]", ".name"},
+                {"list", "[x]", ".name"},
+                {"map", ".abc"},
+                {"map", ".b"},
+                {"bean"},
+                {"bean", ".field"},
+                {"bean", ".field", ".other"},
+                {"xyxz"},
+                {"xyz", "[0]"},
+                {"foo", ".id"},
+                {"foo", ".bar", ".id"},
+                {"aa"}, {"aaa"}, {"aaaa"},
+                {"-", "[1]"},
+                {"user", ".password"},
+                {"a\u2028b", ".password"},
+                {"\ud83d\ude00", ".id"}};
+
+        for (String regex : regexes) {
+            List<Pattern> patterns = new ArrayList<Pattern>();
+            patterns.add(Pattern.compile(regex));
+            JSONPathFilter excluding = JSONPathFilter.compile(patterns, null);
+            JSONPathFilter including = JSONPathFilter.compile(null, patterns);
+            assertNotNull(regex, excluding);
+            assertNotNull(regex, including);
+
+            for (String[] path : paths) {
+                String expr = "";
+                int excludeState = JSONPathFilter.ROOT;
+                int includeState = JSONPathFilter.ROOT;
+                for (String segment : path) {
+                    expr += segment;
+                    if (segment.startsWith("[") && Character.isDigit(segment.charAt(1))) {
+                        int index = Integer.parseInt(segment.substring(1, segment.length() - 1));
+                        excludeState = excluding.index(excludeState, index);
+                        includeState = including.index(includeState, index);
+                    } else {
+                        String name = segment.startsWith(".") ? segment.substring(1) : segment;
+                        excludeState = excluding.property(excludeState, name);
+                        includeState = including.property(includeState, name);
+                    }
+                }
+                boolean matches = Pattern.matches(regex, expr);
+                assertEquals(regex + " on " + expr, matches, excluding.isExcluded(excludeState));
+                assertEquals(regex + " on " + expr, !matches, including.isExcluded(includeState));
+            }
+        }
+    }
+
+    public void testSubtrees() throws Exception {
+        List<Pattern> exclude = new ArrayList<Pattern>();
+        exclude.add(Pattern.compile("bean\\.secret"));
+        JSONPathFilter filter = JSONPathFilter.compile(exclude, null);
+        assertEquals(JSONPathFilter.ALL_INCLUDED, filter.property(JSONPathFilter.ROOT, "other"));
+        int bean = filter.property(JSONPathFilter.ROOT, "bean");
+        assertFalse(filter.isExcluded(bean));
+        assertTrue(filter.isExcluded(filter.property(bean, "secret")));
+        assertEquals(JSONPathFilter.ALL_INCLUDED, filter.property(bean, "name"));
+
+        List<Pattern> include = new ArrayList<Pattern>();
+        include.add(Pattern.compile("bean"));
+        include.add(Pattern.compile("bean\\..*"));
+        include.add(Pattern.compile("name"));
+        filter = JSONPathFilter.compile(null, include);
+        int name = filter.property(JSONPathFilter.ROOT, "name");
+        assertFalse(filter.isExcluded(name));
+        assertTrue(filter.isExcludingChildren(name));
+        assertFalse(filter.isExcluded(filter.property(filter.property(JSONPathFilter.ROOT, "bean"), "x")));
+        assertTrue(filter.isExcluded(filter.property(JSONPathFilter.ROOT, "other")));
+    }
+
+    public void testUnsupportedPatterns() throws Exception {
+        String[] regexes = {"(a)\\1", "a(?=b)", "a*+", "\\bword", "(?i)name", "[a[b]]", "\\p{Alpha}", "a$b"};
+        for (String regex : regexes) {
+            List<Pattern> patterns = new ArrayList<Pattern>();
+            patterns.add(Pattern.compile(regex));
+            assertNull(regex, JSONPathFilter.compile(patterns, null));
+        }
+
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        patterns.add(Pattern.compile("name", Pattern.CASE_INSENSITIVE));
+        assertNull(JSONPathFilter.compile(patterns, null));
+    }
+}
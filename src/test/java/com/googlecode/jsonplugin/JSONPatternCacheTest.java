@@ -0,0 +1,44 @@
+package com.googlecode.jsonplugin;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+
+public class JSONPatternCacheTest extends TestCase {
+
+    public void testPatternsAreShared() throws Exception {
+        List<Pattern> patterns = JSONPatternCache.getPatterns("a, b\\.c");
+        assertEquals(2, patterns.size());
+        assertEquals("b\\.c", patterns.get(1).pattern());
+        assertSame(patterns, JSONPatternCache.getPatterns("a, b\\.c"));
+        assertNull(JSONPatternCache.getPatterns(" "));
+
+        try {
+            patterns.add(Pattern.compile("d"));
+            fail("cached patterns must not be modifiable");
+        } catch (UnsupportedOperationException e) {
+            //ok
+        }
+    }
+
+    public void testIncludeLevels() throws Exception {
+        List<Pattern> patterns = JSONPatternCache.getIncludePatterns("list\\[\\d+\\]\\.name");
+        assertEquals(3, patterns.size());
+        assertEquals("list", patterns.get(0).pattern());
+        assertEquals("list\\[\\d+\\]", patterns.get(1).pattern());
+        assertEquals("list\\[\\d+\\]\\.name", patterns.get(2).pattern());
+        assertNotSame(patterns, JSONPatternCache.getPatterns("list\\[\\d+\\]\\.name"));
+    }
+
+    public void testPathFilterIsShared() throws Exception {
+        List<Pattern> exclude = JSONPatternCache.getPatterns("a\\.b");
+        List<Pattern> include = JSONPatternCache.getIncludePatterns("a\\.b");
+        JSONPathFilter filter = JSONPatternCache.getPathFilter(exclude, include);
+        assertNotNull(filter);
+        assertSame(filter, JSONPatternCache.getPathFilter(exclude, include));
+        assertNotSame(filter, JSONPatternCache.getPathFilter(exclude, null));
+
+        assertNull(JSONPatternCache.getPathFilter(JSONPatternCache.getPatterns("(a)\\1"), null));
+    }
+}
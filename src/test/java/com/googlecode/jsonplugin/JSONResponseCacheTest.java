@@ -0,0 +1,188 @@
+package com.googlecode.jsonplugin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+
+public class JSONResponseCacheTest extends TestCase {
+
+    public void testResponsesAreCached() throws Exception {
+        JSONResponseCache cache = new JSONResponseCache(16, 1024);
+        Loader loader = new Loader("{\"a\":1}");
+
+        JSONResponseCache.Entry entry = cache.get("key", 60000, loader);
+        assertEquals("{\"a\":1}", new String(entry.getBody(), "UTF-8"));
+        assertSame(entry, cache.get("key", 60000, loader));
+        assertEquals(1, loader.calls.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    public void testExpiredResponsesAreCreatedAgain() throws Exception {
+        JSONResponseCache cache = new JSONResponseCache(16, 1024);
+        Loader loader = new Loader("[]");
+
+        cache.get("key", 0, loader);
+        cache.get("key", 0, loader);
+        assertEquals(2, loader.calls.get());
+        assertEquals(1, cache.size());
+    }
+
+    public void testEviction() throws Exception {
+        JSONResponseCache cache = new JSONResponseCache(2, 10);
+        cache.get("a", 60000, new Loader("1234"));
+        cache.get("b", 60000, new Loader("1234"));
+        cache.get("a", 60000, new Loader("1234"));
+        cache.get("c", 60000, new Loader("1234"));
+        //b is the least recently used
+        assertEquals(2, cache.size());
+        Loader loader = new Loader("1234");
+        cache.get("a", 60000, loader);
+        cache.get("b", 60000, loader);
+        assertEquals(1, loader.calls.get());
+
+        //too many bytes
+        cache.get("d", 60000, new Loader("12345678"));
+        assertEquals(1, cache.size());
+    }
+
+    public void testCompressedBodiesAreCounted() throws Exception {
+        JSONResponseCache cache = new JSONResponseCache(16, 110);
+        cache.get("a", 60000, new Loader("1234567890"));
+        JSONResponseCache.Entry entry = cache.get("b", 60000, new Loader("1234567890"));
+        assertEquals(20, cache.getBytes());
+
+        int gzipped = entry.getGzippedBody(9).length;
+        assertEquals(20 + gzipped, cache.getBytes());
+        entry.getGzippedBody(9);
+        assertEquals(20 + gzipped, cache.getBytes());
+
+        //a is evicted once the compressed bodies of b pass the limit
+        entry.getGzippedBody(1);
+        entry.getGzippedBody(0);
+        assertEquals(1, cache.size());
+        assertTrue(cache.getBytes() <= 110);
+        Loader loader = new Loader("1234567890");
+        assertSame(entry, cache.get("b", 60000, loader));
+        assertEquals(0, loader.calls.get());
+    }
+
+    public void testFailuresAreNotCached() throws Exception {
+        JSONResponseCache cache = new JSONResponseCache(16, 1024);
+        try {
+            cache.get("key", 60000, new Callable<byte[]>() {
+                public byte[] call() throws Exception {
+                    throw new JSONException("failed");
+                }
+            });
+            fail();
+        } catch (JSONException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertEquals(0, cache.size());
+
+        Loader loader = new Loader("{}");
+        cache.get("key", 60000, loader);
+        assertEquals(1, loader.calls.get());
+    }
+
+    public void testConcurrentMissesShareOneLoader() throws Exception {
+        final JSONResponseCache cache = new JSONResponseCache(16, 1024);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final Callable<byte[]> loader = new Callable<byte[]>() {
+            public byte[] call() throws Exception {
+                calls.incrementAndGet();
+                started.countDown();
+                release.await();
+                return "{}".getBytes("UTF-8");
+            }
+        };
+
+        final JSONResponseCache.Entry[] entries = new JSONResponseCache.Entry[2];
+        Thread first = new Thread() {
+            public void run() {
+                try {
+                    entries[0] = cache.get("key", 60000, loader);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        first.start();
+        started.await();
+
+        Thread second = new Thread() {
+            public void run() {
+                try {
+                    entries[1] = cache.get("key", 60000, loader);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        second.start();
+        //the second request waits for the first one
+        second.join(100);
+        assertTrue(second.isAlive());
+
+        release.countDown();
+        first.join();
+        second.join();
+        assertEquals(1, calls.get());
+        assertNotNull(entries[0]);
+        assertSame(entries[0], entries[1]);
+    }
+
+    public void testETags() throws Exception {
+        JSONResponseCache.Entry entry = new JSONResponseCache(16, 1024).get("key", 60000, new Loader("{}"));
+        assertEquals("\"99914b932bd37a50b983c5e7c90ae93b\"", entry.getETag(false));
+        assertEquals("\"99914b932bd37a50b983c5e7c90ae93b-gzip\"", entry.getETag(true));
+        assertEquals("{}", gunzip(entry.getGzippedBody()));
+        assertSame(entry.getGzippedBody(), entry.getGzippedBody());
+    }
+
+    public void testGzippedBodyPerLevel() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+            text.append("{\"id\":").append(i).append('}');
+        JSONResponseCache.Entry entry = new JSONResponseCache(16, 1 << 20).get("key", 60000,
+                new Loader(text.toString()));
+
+        assertEquals(text.toString(), gunzip(entry.getGzippedBody(0)));
+        assertEquals(text.toString(), gunzip(entry.getGzippedBody(9)));
+        assertTrue(entry.getGzippedBody(9).length < entry.getGzippedBody(0).length);
+        assertSame(entry.getGzippedBody(9), entry.getGzippedBody(9));
+        assertNotSame(entry.getGzippedBody(), entry.getGzippedBody(9));
+    }
+
+    private static String gunzip(byte[] bytes) throws IOException {
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        for (int n; (n = in.read(buffer)) > 0;)
+            out.write(buffer, 0, n);
+        return out.toString("UTF-8");
+    }
+
+    private static class Loader implements Callable<byte[]> {
+        final AtomicInteger calls = new AtomicInteger();
+        final String text;
+
+        Loader(String text) {
+            this.text = text;
+        }
+
+        public byte[] call() throws Exception {
+            calls.incrementAndGet();
+            return text.getBytes("UTF-8");
+        }
+    }
+}
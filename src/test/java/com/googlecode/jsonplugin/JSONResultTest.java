@@ -22,6 +22,7 @@ package com.googlecode.jsonplugin;
 
 import com.opensymphony.xwork2.ActionContext;
 import com.opensymphony.xwork2.mock.MockActionInvocation;
+import com.opensymphony.xwork2.mock.MockActionProxy;
 import com.opensymphony.xwork2.util.ValueStack;
 import com.opensymphony.xwork2.util.ValueStackFactory;
 import org.apache.struts2.StrutsStatics;
@@ -34,6 +35,7 @@ import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -156,6 +158,23 @@ public class JSONResultTest extends StrutsTestCase {
         assertEquals(normalizedExpected, normalizedActual);
     }
 
+    public void testStreaming() throws Exception {
+        JSONResult result = new JSONResult();
+        result.setStreaming(true);
+        result.setWrapPrefix("_prefix_");
+        result.setWrapSuffix("_suffix_");
+        TestAction2 action = new TestAction2();
+
+        this.invocation.setAction(action);
+        result.execute(this.invocation);
+
+        String out = this.stringWriter.toString();
+
+        String normalizedActual = TestUtils.normalize(out, true);
+        String normalizedExpected = "_prefix_{\"name\":\"name\"}_suffix_";
+        assertEquals(normalizedExpected, normalizedActual);
+    }
+
     public void testSuffix() throws Exception {
         JSONResult result = new JSONResult();
         result.setWrapSuffix("_suffix_");
@@ -537,6 +556,147 @@ public class JSONResultTest extends StrutsTestCase {
         assertEquals("application/json;charset=ISO-8859-1", response.getContentType());
     }
 
+    public void testETag() throws Exception {
+        JSONResult result = new JSONResult();
+        result.setEnableETag(true);
+        TestAction action = new TestAction();
+        action.setFoo("tagged");
+        this.invocation.setAction(action);
+        result.execute(this.invocation);
+
+        String etag = response.getHeaders().get("ETag");
+        assertNotNull(etag);
+        assertTrue(this.stringWriter.toString().indexOf("\"foo\":\"tagged\"") > 0);
+
+        //the same body streamed gets the same tag
+        setUp();
+        result.setStreaming(true);
+        this.invocation.setAction(action);
+        result.execute(this.invocation);
+        assertEquals(etag, response.getHeaders().get("ETag"));
+
+        setUp();
+        result.setStreaming(false);
+        this.invocation.setAction(action);
+        this.request.setupAddHeader("If-None-Match", etag);
+        result.execute(this.invocation);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+        assertEquals("", this.stringWriter.toString());
+
+        setUp();
+        action.setFoo("changed");
+        this.invocation.setAction(action);
+        this.request.setupAddHeader("If-None-Match", etag);
+        result.execute(this.invocation);
+        assertFalse(etag.equals(response.getHeaders().get("ETag")));
+        assertTrue(this.stringWriter.toString().indexOf("\"foo\":\"changed\"") > 0);
+    }
+
+    public void testVersion() throws Exception {
+        JSONResult result = new JSONResult();
+        result.setVersionExpression("foo");
+        TestAction action = new TestAction();
+        action.setFoo("1");
+        stack.push(action);
+        this.invocation.setStack(stack);
+        this.invocation.setAction(action);
+        result.execute(this.invocation);
+
+        String etag = response.getHeaders().get("ETag");
+        assertNotNull(etag);
+        assertTrue(this.stringWriter.toString().indexOf("\"foo\":\"1\"") > 0);
+
+        //other settings, other tag
+        JSONResult excluding = new JSONResult();
+        excluding.setVersionExpression("foo");
+        excluding.setExcludeProperties("bar");
+        setUp();
+        stack.push(action);
+        this.invocation.setStack(stack);
+        this.invocation.setAction(action);
+        excluding.execute(this.invocation);
+        assertFalse(etag.equals(response.getHeaders().get("ETag")));
+
+        //same version: nothing is serialized
+        setUp();
+        stack.push(action);
+        this.invocation.setStack(stack);
+        this.invocation.setAction(action);
+        this.request.setupAddHeader("If-None-Match", etag);
+        result.execute(this.invocation);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+        assertEquals("", this.stringWriter.toString());
+    }
+
+    public void testResponseCache() throws Exception {
+        JSONResult result = new JSONResult();
+        result.setCacheTimeout(60);
+        result.setCacheKeyParameters("page");
+        TestAction action = new TestAction();
+        action.setFoo("cached");
+        this.invocation.setAction(action);
+        this.invocation.setProxy(new MockActionProxy());
+        this.request.setParameterMap(Collections.singletonMap("page", new String[]{"1"}));
+        result.execute(this.invocation);
+
+        String json = this.stringWriter.toString();
+        assertTrue(json.indexOf("\"foo\":\"cached\"") > 0);
+        String etag = response.getHeaders().get("ETag");
+        assertNotNull(etag);
+
+        //the cached response is used while it is valid
+        action.setFoo("changed");
+        setUp();
+        this.invocation.setAction(action);
+        this.invocation.setProxy(new MockActionProxy());
+        this.request.setParameterMap(Collections.singletonMap("page", new String[]{"1"}));
+        result.execute(this.invocation);
+        assertEquals(json, this.stringWriter.toString());
+        assertEquals(etag, response.getHeaders().get("ETag"));
+
+        //the client has the current response
+        setUp();
+        this.invocation.setAction(action);
+        this.invocation.setProxy(new MockActionProxy());
+        this.request.setParameterMap(Collections.singletonMap("page", new String[]{"1"}));
+        this.request.setupAddHeader("If-None-Match", "\"other\", " + etag);
+        result.execute(this.invocation);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+        assertEquals("", this.stringWriter.toString());
+
+        JSONResponseCache.getDefault().clear();
+    }
+
+    public void testVersionedResponseCache() throws Exception {
+        JSONResult result = new JSONResult();
+        result.setCacheTimeout(60);
+        result.setVersionExpression("foo");
+        TestAction action = new TestAction();
+        action.setFoo("1");
+        stack.push(action);
+        this.invocation.setStack(stack);
+        this.invocation.setAction(action);
+        this.invocation.setProxy(new MockActionProxy());
+        result.execute(this.invocation);
+
+        String etag = response.getHeaders().get("ETag");
+        assertTrue(etag.startsWith("W/"));
+        assertTrue(this.stringWriter.toString().indexOf("\"foo\":\"1\"") > 0);
+
+        //a new version is not served from the response cached for the previous one
+        action.setFoo("2");
+        setUp();
+        stack.push(action);
+        this.invocation.setStack(stack);
+        this.invocation.setAction(action);
+        this.invocation.setProxy(new MockActionProxy());
+        result.execute(this.invocation);
+        assertFalse(etag.equals(response.getHeaders().get("ETag")));
+        assertTrue(this.stringWriter.toString().indexOf("\"foo\":\"2\"") > 0);
+
+        JSONResponseCache.getDefault().clear();
+    }
+
     @Override
     protected void setUp() throws Exception {
         super.setUp();
@@ -2,7 +2,25 @@ package com.googlecode.jsonplugin;
 
 import junit.framework.TestCase;
 
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
 
 public class JSONUtilTest extends TestCase {
 
@@ -35,4 +53,244 @@ public class JSONUtilTest extends TestCase {
         assertEquals(AnEnum.ValueA, AnEnum.valueOf((String) result.get("enumField")));  // note: this is a String
         assertEquals(AnEnumBean.Two, AnEnumBean.valueOf((String) result.get("enumBean")));  // note: this is a String
     }
+
+    public void testSerializeToWriter() throws Exception {
+        Bean bean1 = new Bean();
+        bean1.setStringField("str");
+        bean1.setEnumField(AnEnum.ValueB);
+
+        //larger than the output buffer
+        List list = new ArrayList();
+        for (int i = 0; i < 5000; i++)
+            list.add(bean1);
+
+        StringWriter writer = new StringWriter();
+        JSONUtil.serialize(writer, list);
+
+        assertEquals(JSONUtil.serialize(list), writer.toString());
+    }
+
+    public void testCyclicReferenceIsNulled() throws Exception {
+        Bean bean1 = new Bean();
+        Bean bean2 = new Bean();
+        bean1.setObjectField(bean2);
+        bean2.setObjectField(bean1);
+
+        Map result = (Map) JSONUtil.deserialize(JSONUtil.serialize(bean1));
+        Map nested = (Map) result.get("objectField");
+        assertNotNull(nested);
+        assertTrue(nested.containsKey("objectField"));
+        assertNull(nested.get("objectField"));
+    }
+
+    public void testAssumeAcyclic() throws Exception {
+        Bean bean1 = new Bean();
+        Bean bean2 = new Bean();
+        bean1.setObjectField(bean2);
+        List list = new ArrayList();
+        list.add(bean1);
+        list.add(bean1);
+
+        JSONWriter writer = new JSONWriter();
+        writer.setAssumeAcyclic(true);
+
+        assertEquals(JSONUtil.serialize(list), writer.write(list));
+    }
+
+    public void testStringEscaping() throws Exception {
+        String s = "plain \"q\" \\ / \b\f\n\r\t \u0001\u001f\u007f\u0085 \u00e9\u20ac";
+        assertEquals("\"plain \\\"q\\\" \\\\ \\/ \\b\\f\\n\\r\\t \\u0001\\u001F\\u007F\\u0085 \u00e9\u20ac\"",
+                JSONUtil.serialize(s));
+        assertEquals(s, JSONUtil.deserialize(JSONUtil.serialize(s)));
+    }
+
+    public void testPrimitiveArrays() throws Exception {
+        assertEquals("[1,-2]", JSONUtil.serialize(new int[]{1, -2}));
+        assertEquals("[1.5,-0.0,NaN]", JSONUtil.serialize(new double[]{1.5, -0.0, Double.NaN}));
+        assertEquals("[1.1]", JSONUtil.serialize(new float[]{1.1f}));
+        assertEquals("[true,false]", JSONUtil.serialize(new boolean[]{true, false}));
+        assertEquals("[\"a\",\"\\\"\"]", JSONUtil.serialize(new char[]{'a', '"'}));
+        assertEquals("[[-128],[300]]", JSONUtil.serialize(new Object[]{new byte[]{-128}, new short[]{300}}));
+
+        List<Pattern> exclude = new ArrayList<Pattern>();
+        exclude.add(Pattern.compile("\\[1\\]"));
+        assertEquals("[1,3]", JSONUtil.serialize(new long[]{1, 2, 3}, exclude, null, true, false));
+    }
+
+    public void testPooledWriterIsReset() throws Exception {
+        JSONWriter writer = JSONWriter.acquire();
+        //the writer of the thread is in use
+        JSONWriter nested = JSONWriter.acquire();
+        assertNotSame(writer, nested);
+        nested.release();
+
+        List<Pattern> exclude = new ArrayList<Pattern>();
+        exclude.add(Pattern.compile("intField"));
+        writer.setEnumAsBean(true);
+        writer.setPathFilter(JSONPatternCache.getPathFilter(exclude, null));
+        writer.write(new Bean(), exclude, null, false);
+        writer.release();
+
+        assertSame(writer, JSONWriter.acquire());
+        writer.release();
+        assertEquals(new JSONWriter().write(AnEnum.ValueA), JSONUtil.serialize(AnEnum.ValueA));
+
+        //big buffers are not kept
+        char[] text = new char[JSONWriter.MAX_RETAINED_CHARS + 1];
+        Arrays.fill(text, 'a');
+        assertEquals(text.length + 2, JSONUtil.serialize(new String(text)).length());
+        assertEquals("[1]", JSONUtil.serialize(new int[]{1}));
+    }
+
+    public void testIteratorsAndEnumerations() throws Exception {
+        List<Integer> list = Arrays.asList(1, 2, 3);
+        assertEquals("[1,2,3]", JSONUtil.serialize(list.iterator()));
+        assertEquals("[1,2,3]", JSONUtil.serialize(Collections.enumeration(list)));
+
+        //an Iterator with properties is a bean, it is not consumed
+        Cursor cursor = new Cursor();
+        assertEquals("{\"position\":0}", JSONUtil.serialize(cursor));
+        assertTrue(cursor.hasNext());
+        assertEquals("[{\"position\":0}]", JSONUtil.serialize(Collections.singletonList(cursor)));
+    }
+
+    public static class Cursor implements Iterator<Integer> {
+        private int position;
+
+        public int getPosition() {
+            return position;
+        }
+
+        public boolean hasNext() {
+            return position < 3;
+        }
+
+        public Integer next() {
+            return position++;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    public void testPeriodicFlush() throws Exception {
+        final int[] flushes = new int[1];
+        StringWriter out = new StringWriter() {
+            @Override
+            public void flush() {
+                flushes[0]++;
+            }
+        };
+        List<String> list = new ArrayList<String>();
+        for (int i = 0; i < 10; i++)
+            list.add("abcdefgh");
+
+        JSONWriter writer = new JSONWriter();
+        writer.setFlushInterval(3);
+        writer.write(list.iterator(), out, null, null, false);
+        assertEquals(3, flushes[0]);
+        assertEquals(JSONUtil.serialize(list), out.toString());
+
+        flushes[0] = 0;
+        writer.setFlushInterval(0);
+        writer.setFlushSize(20);
+        writer.write(list, out, null, null, false);
+        //11 chars per element with the separator, flushed every other element
+        assertEquals(5, flushes[0]);
+
+        flushes[0] = 0;
+        writer.setFlushSize(0);
+        writer.setFlushInterval(3);
+        writer.write(new int[10], out, null, null, false);
+        assertEquals(3, flushes[0]);
+    }
+
+    public void testFlushStreamedGzip() throws Exception {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        HttpServletResponse response = (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{HttpServletResponse.class}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getOutputStream")) {
+                            return new ServletOutputStream() {
+                                public void write(int b) {
+                                    body.write(b);
+                                }
+                            };
+                        }
+                        return method.getReturnType().equals(boolean.class) ? Boolean.FALSE : null;
+                    }
+                });
+        SerializationParams params = new SerializationParams(response, "UTF-8", false, null, false, true, false, 0, 0,
+                false, null);
+        params.setGzipMinSize(0);
+
+        Writer writer = JSONUtil.openJSONResponse(params);
+        writer.write("[1,2,3");
+        writer.flush();
+        if (!ParallelGzip.canSyncFlush())
+            return;
+
+        //the flushed text can be inflated before the end of the stream
+        byte[] compressed = body.toByteArray();
+        Inflater inflater = new Inflater(true);
+        inflater.setInput(compressed, 10, compressed.length - 10);
+        byte[] text = new byte[16];
+        assertEquals("[1,2,3", new String(text, 0, inflater.inflate(text), "UTF-8"));
+    }
+
+    public void testSortMapKeys() throws Exception {
+        Map<Object, Object> map = new LinkedHashMap<Object, Object>();
+        map.put("b", 1);
+        map.put(10, 2);
+        map.put("a", Collections.singletonMap("y", 3));
+        JSONWriter writer = new JSONWriter();
+        assertEquals("{\"b\":1,\"10\":2,\"a\":{\"y\":3}}", writer.write(map));
+
+        writer.setSortMapKeys(true);
+        assertEquals("{\"10\":2,\"a\":{\"y\":3},\"b\":1}", writer.write(map));
+        List<Pattern> exclude = new ArrayList<Pattern>();
+        exclude.add(Pattern.compile("a"));
+        assertEquals("{\"10\":2,\"b\":1}", writer.write(map, exclude, null, false));
+    }
+
+    public void testETag() throws Exception {
+        byte[] digest = JSONUtil.createDigest().digest("{}".getBytes("UTF-8"));
+        assertEquals("\"99914b932bd37a50b983c5e7c90ae93b\"", JSONUtil.getETag(digest, false));
+        assertEquals("\"99914b932bd37a50b983c5e7c90ae93b-gzip\"", JSONUtil.getETag(digest, true));
+    }
+
+    public void testGzipSettings() throws Exception {
+        SerializationParams params = new SerializationParams(null, "UTF-8", false, null, false, true, false, 0, 0,
+                false, null);
+        assertEquals(CompressionPolicy.NO_COMPRESSION, JSONUtil.getGzipLevel(params,
+                SerializationParams.DEFAULT_GZIP_MIN_SIZE - 1));
+        assertEquals(Deflater.DEFAULT_COMPRESSION, JSONUtil.getGzipLevel(params,
+                SerializationParams.DEFAULT_GZIP_MIN_SIZE));
+
+        byte[] body = JSONUtil.serialize(Collections.nCopies(100, "abc")).getBytes("UTF-8");
+        int stored = JSONUtil.gzip(body, params, 0).length;
+        assertTrue(JSONUtil.gzip(body, params, 9).length < stored);
+        assertTrue(stored > body.length);
+    }
+
+    public void testCompressionPolicy() throws Exception {
+        SerializationParams params = new SerializationParams(null, "UTF-8", false, null, false, true, false, 0, 0,
+                false, null);
+        AdaptiveCompressionPolicy policy = new AdaptiveCompressionPolicy() {
+            protected double readCpuLoad() {
+                return 0.5;
+            }
+        };
+        params.setCompressionPolicy(policy, "/list");
+        assertEquals(6, JSONUtil.getGzipLevel(params, SerializationParams.DEFAULT_GZIP_MIN_SIZE));
+
+        //the compressed size is reported to the policy
+        byte[] body = JSONUtil.serialize(Collections.nCopies(1000, "abc")).getBytes("UTF-8");
+        JSONUtil.gzip(body, params, 6);
+        assertTrue(policy.getCompressionRatio("/list") > 0);
+        //averaged with the initial 30%
+        assertTrue(policy.getCompressionRatio("/list") < 0.3);
+        assertEquals(1, policy.getLevelCount(6));
+    }
 }
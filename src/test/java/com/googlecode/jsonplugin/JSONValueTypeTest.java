@@ -0,0 +1,38 @@
+package com.googlecode.jsonplugin;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+
+public class JSONValueTypeTest extends TestCase {
+
+    public void testResolve() throws Exception {
+        assertEquals(JSONValueType.STRING, JSONValueType.of(String.class));
+        assertEquals(JSONValueType.STRING, JSONValueType.of(Class.class));
+        assertEquals(JSONValueType.STRING, JSONValueType.of(Locale.class));
+        assertEquals(JSONValueType.NUMBER, JSONValueType.of(Integer.class));
+        assertEquals(JSONValueType.PRIMITIVE_ARRAY, JSONValueType.of(int[].class));
+        assertEquals(JSONValueType.ARRAY, JSONValueType.of(int[][].class));
+        assertEquals(JSONValueType.MAP, JSONValueType.of(HashMap.class));
+        assertEquals(JSONValueType.ITERABLE, JSONValueType.of(ArrayList.class));
+        assertEquals(JSONValueType.DATE, JSONValueType.of(Timestamp.class));
+        assertEquals(JSONValueType.CALENDAR, JSONValueType.of(GregorianCalendar.class));
+        assertEquals(JSONValueType.ENUM, JSONValueType.of(AnEnum.ValueA.getClass()));
+        assertEquals(JSONValueType.BEAN, JSONValueType.of(Bean.class));
+        assertEquals(JSONValueType.ITERATOR, JSONValueType.of(new ArrayList().iterator().getClass()));
+        assertEquals(JSONValueType.ENUMERATION, JSONValueType.of(new Vector().elements().getClass()));
+        assertEquals(JSONValueType.BEAN, JSONValueType.of(JSONUtilTest.Cursor.class));
+    }
+
+    public void testScalar() throws Exception {
+        assertTrue(JSONValueType.NUMBER.isScalar());
+        assertTrue(JSONValueType.PRIMITIVE_ARRAY.isScalar());
+        assertFalse(JSONValueType.ARRAY.isScalar());
+        assertFalse(JSONValueType.BEAN.isScalar());
+    }
+}
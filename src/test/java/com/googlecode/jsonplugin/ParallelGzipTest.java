@@ -0,0 +1,79 @@
+package com.googlecode.jsonplugin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+
+public class ParallelGzipTest extends TestCase {
+
+    public void testBlocksFormOneStream() throws Exception {
+        if (!ParallelGzip.isEnabled())
+            return;
+
+        byte[] body = createBody(3 * ParallelGzip.BLOCK_SIZE + 17);
+        for (int length : new int[]{1, ParallelGzip.BLOCK_SIZE, 2 * ParallelGzip.BLOCK_SIZE,
+                3 * ParallelGzip.BLOCK_SIZE + 10}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ParallelGzip.compress(body, 7, length, Deflater.DEFAULT_COMPRESSION, out);
+            assertTrue(Arrays.equals(Arrays.copyOfRange(body, 7, 7 + length), gunzip(out.toByteArray())));
+        }
+    }
+
+    public void testDictionaryKeepsTheRatio() throws Exception {
+        if (!ParallelGzip.isEnabled())
+            return;
+
+        byte[] body = createBody(8 * ParallelGzip.BLOCK_SIZE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParallelGzip.compress(body, 0, body.length, Deflater.DEFAULT_COMPRESSION, out);
+        int single = JSONUtil.gzip(body).length;
+        assertTrue(out.size() < single * 1.02 + 1024);
+    }
+
+    public void testThreadsDontHoldTheContextClassLoader() throws Exception {
+        if (!ParallelGzip.isEnabled())
+            return;
+
+        byte[] body = createBody(2 * ParallelGzip.BLOCK_SIZE);
+        ParallelGzip.compress(body, 0, body.length, Deflater.DEFAULT_COMPRESSION, new ByteArrayOutputStream());
+        Thread[] threads = new Thread[Thread.activeCount() * 2];
+        int count = Thread.enumerate(threads);
+        int found = 0;
+        for (int i = 0; i < count; i++) {
+            if (threads[i].getName().startsWith("JSON gzip ")) {
+                assertNull(threads[i].getContextClassLoader());
+                found++;
+            }
+        }
+        assertTrue(found > 0);
+    }
+
+    public void testSettings() throws Exception {
+        byte[] body = createBody(ParallelGzip.BLOCK_SIZE + 1);
+        SerializationParams params = new SerializationParams(null, "UTF-8", false, null, false, true, false, 0, 0,
+                false, null);
+        params.setGzipParallelMinSize(ParallelGzip.BLOCK_SIZE);
+        assertTrue(Arrays.equals(body, gunzip(JSONUtil.gzip(body, params, Deflater.DEFAULT_COMPRESSION))));
+    }
+
+    private static byte[] createBody(int size) throws IOException {
+        StringBuilder text = new StringBuilder("[");
+        for (int i = 0; text.length() < size; i++)
+            text.append("{\"id\":").append(i).append(",\"name\":\"item ").append(i * 7919 % 1000).append("\"},");
+        return text.substring(0, size).getBytes("UTF-8");
+    }
+
+    private static byte[] gunzip(byte[] bytes) throws IOException {
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n; (n = in.read(buffer)) > 0;)
+            out.write(buffer, 0, n);
+        return out.toByteArray();
+    }
+}
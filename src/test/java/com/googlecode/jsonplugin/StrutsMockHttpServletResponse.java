@@ -27,6 +27,8 @@ import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 
+import javax.servlet.ServletOutputStream;
+
 import com.mockobjects.servlet.MockHttpServletResponse;
 
 /**
@@ -72,10 +74,47 @@ public class StrutsMockHttpServletResponse extends MockHttpServletResponse {
             return this.writer;
     }
 
+    /**
+     * Decodes the bytes written to the stream into the writer, using the charset of the content type
+     */
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        final PrintWriter out = getWriter();
+        return new ServletOutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(new String(b, off, len, getCharset()));
+            }
+
+            @Override
+            public void flush() throws IOException {
+                out.flush();
+            }
+        };
+    }
+
+    private String getCharset() {
+        if ((contentType != null) && (contentType.indexOf("charset=") >= 0))
+            return contentType.substring(contentType.indexOf("charset=") + "charset=".length());
+        return "ISO-8859-1";
+    }
+
     public void setCharacterEncoding(String string) {
         //To change body of implemented methods use File | Settings | File Templates.
     }
 
+    public boolean isCommitted() {
+        return false;
+    }
+
+    public void resetBuffer() {
+    }
+
     public void setWriter(PrintWriter writer) {
         this.writer = writer;
     }
@@ -0,0 +1,74 @@
+package com.googlecode.jsonplugin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TypeSerializerRegistryTest extends TestCase {
+
+    public void testLookupFollowsHierarchy() throws Exception {
+        TypeSerializer beans = new BeanSerializer(Bean.class);
+        TypeSerializer serializables = new BeanSerializer(Serializable.class);
+        TypeSerializerRegistry registry = new TypeSerializerRegistry(Arrays.asList(beans, serializables));
+
+        assertSame(beans, registry.getSerializer(Bean.class));
+        assertSame(beans, registry.getSerializer(SubBean.class));
+        assertSame(serializables, registry.getSerializer(String.class));
+        assertNull(registry.getSerializer(Object.class));
+    }
+
+    public void testSerializerWritesToCharAndByteOutput() throws Exception {
+        Bean bean = new Bean();
+        bean.setStringField("caf\u00e9");
+        bean.setIntField(3);
+        bean.setEnumField(AnEnum.ValueA);
+        List<Object> list = new ArrayList<Object>();
+        list.add(bean);
+
+        JSONWriter writer = new JSONWriter();
+        writer.setSerializers(new TypeSerializerRegistry(Arrays.asList((TypeSerializer) new BeanSerializer(
+                Bean.class))));
+        String expected = "[{\"s\":\"caf\u00e9\",\"i\":3,\"e\":\"ValueA\"}]";
+        assertEquals(expected, writer.write(list));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JSONByteOutput out = new JSONByteOutput(bytes, "UTF-8", 16);
+        writer.write(list, out, null, null, false);
+        out.flush();
+        assertEquals(expected, new String(bytes.toByteArray(), "UTF-8"));
+    }
+
+    public static class SubBean extends Bean {
+    }
+
+    private static class BeanSerializer implements TypeSerializer {
+        private static final char[] INT_KEY = ",\"i\":".toCharArray();
+        private static final byte[] INT_KEY_BYTES = ",\"i\":".getBytes();
+
+        private final Class type;
+
+        BeanSerializer(Class type) {
+            this.type = type;
+        }
+
+        public Class getType() {
+            return type;
+        }
+
+        public void serialize(Object value, Output out) throws IOException, JSONException {
+            Bean bean = (Bean) value;
+            out.getWriter().write("{\"s\":");
+            out.writeString(bean.getStringField());
+            out.writeRaw(INT_KEY, INT_KEY_BYTES);
+            out.writeNumber(bean.getIntField());
+            out.getWriter().write(",\"e\":");
+            out.writeValue(bean.getEnumField());
+            out.getWriter().write('}');
+        }
+    }
+}